@@ -0,0 +1,49 @@
+package net.networkdowntime.morris.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.networkdowntime.morris.Constants;
+import net.networkdowntime.morris.Utils;
+import net.networkdowntime.morris.board.Bitboard;
+
+/**
+ * The board helpers every Mode 2 move goes through: swapping colours for player two and highlighting the move for the log.
+ *
+ * @author rwiles
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardHelpersBenchmark {
+    private final String boardState = StubEngine.BOARD_STATE;
+    private final String nextMove = "WxBxWBxxWBxxBxWxxBxWxWBx";
+
+    @Benchmark
+    public String swapBoardState() {
+        return Utils.swapBoardState(boardState, Constants.WHITE, Constants.BLACK);
+    }
+
+    @Benchmark
+    public String bitboardSwapColors() {
+        return Bitboard.swapColors(boardState);
+    }
+
+    @Benchmark
+    public String highlightMove() {
+        return Utils.highlightMove("Move: ", boardState, nextMove, true);
+    }
+}
@@ -0,0 +1,86 @@
+package net.networkdowntime.morris.bench;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.validation.Errors;
+import org.springframework.validation.Validator;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.networkdowntime.morris.MoveHandler;
+import net.networkdowntime.morris.api.ClientController;
+import net.networkdowntime.morris.dtos.GameState;
+
+/**
+ * A Mode 1 move request through Spring MVC without a network: binding the GameState, the async hand off to the move executor and
+ * writing the answer.  Uses the in-process stub engine, so the engine costs next to nothing.
+ *
+ * @author rwiles
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientControllerBenchmark {
+    private static final MediaType JSON_UTF8 = MediaType.parseMediaType("application/json;charset=UTF-8");
+
+    private MockMvc mockMvc;
+    private byte[] body;
+
+    @Setup
+    public void setup() throws Exception {
+        MoveHandler.openingCommandLine = StubEngine.getCommandLine(StubEngine.IN_PROCESS);
+        MoveHandler.gameCommandLine = MoveHandler.openingCommandLine;
+        MoveHandler.startEngineWorkers();
+        // the controller doesn't validate, and Hibernate Validator doesn't start without JAXB on Java 9+
+        mockMvc = MockMvcBuilders.standaloneSetup(new ClientController()).setValidator(new NoValidation()).build();
+
+        GameState gameState = new GameState();
+        gameState.currentBoardState = StubEngine.BOARD_STATE;
+        gameState.isPlayerOnesTurn = true;
+        body = new ObjectMapper().writeValueAsBytes(gameState);
+    }
+
+    @Benchmark
+    public String applyMove() throws Exception {
+        MvcResult started = mockMvc.perform(post("/api/clientWrapper/processMove").contentType(JSON_UTF8).content(body)).andReturn();
+
+        // asyncDispatch() polls for the move every 100ms, waiting here keeps that out of the measurement
+        WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(started.getRequest());
+        while (!asyncManager.hasConcurrentResult())
+            Thread.yield();
+        return mockMvc.perform(asyncDispatch(started)).andReturn().getResponse().getContentAsString();
+    }
+
+    private static class NoValidation implements Validator {
+        @Override
+        public boolean supports(Class<?> clazz) {
+            return false;
+        }
+
+        @Override
+        public void validate(Object target, Errors errors) {}
+    }
+}
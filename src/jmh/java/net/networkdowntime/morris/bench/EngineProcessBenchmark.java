@@ -0,0 +1,49 @@
+package net.networkdowntime.morris.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.networkdowntime.morris.engine.EngineCommand;
+import net.networkdowntime.morris.engine.OneShotEngine;
+
+/**
+ * Starting an engine process and handing it a board: the spawn, the board state going in and the move coming back, over the
+ * work files or standard in/out.  Needs cp and cat on the path.
+ *
+ * @author rwiles
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineProcessBenchmark {
+
+    @Param({ StubEngine.FILES, StubEngine.STDIO })
+    public String io;
+
+    private EngineCommand engineCommand;
+
+    @Setup
+    public void setup() throws Exception {
+        engineCommand = EngineCommand.parse(StubEngine.getCommandLine(io));
+    }
+
+    @Benchmark
+    public String oneShotEngine() throws Exception {
+        return OneShotEngine.nextMove(engineCommand, StubEngine.BOARD_STATE);
+    }
+}
@@ -0,0 +1,96 @@
+package net.networkdowntime.morris.bench;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.networkdowntime.morris.GameListReader;
+import net.networkdowntime.morris.dtos.GameState;
+
+/**
+ * Decoding a Mode 2 games list at lobby sizes, the old way (whole body as a String, bind every game, then filter) against the
+ * streaming GameListReader.  Add -prof gc to the JMH arguments for the bytes allocated per poll.
+ *
+ * @author rwiles
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameListReaderBenchmark {
+    private static final String USERNAME = "me";
+    private static final ObjectMapper objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Param({ "100", "1000", "10000" })
+    public int games;
+
+    @Param({ "10" })
+    public int myGames;
+
+    private byte[] body;
+
+    @Setup
+    public void setup() throws Exception {
+        body = createGameList(games, myGames);
+    }
+
+    @Benchmark
+    public int buffered() throws Exception {
+        String json = new String(body, StandardCharsets.UTF_8);
+        GameState[] all = objectMapper.readValue(json, GameState[].class);
+        List<GameState> mine = new ArrayList<GameState>();
+        for (GameState gs : all)
+            if (gs != null && GameListReader.isAutomated(gs, USERNAME)) mine.add(gs);
+        return mine.size();
+    }
+
+    @Benchmark
+    public int streaming() throws Exception {
+        return GameListReader.readAutomated(new ByteArrayInputStream(body), USERNAME).size();
+    }
+
+    private static byte[] createGameList(int gameCount, int myGameCount) throws Exception {
+        Random random = new Random(42);
+        int interval = Math.max(1, gameCount / Math.max(1, myGameCount));
+        GameState[] games = new GameState[gameCount];
+        for (int i = 0; i < gameCount; i++) {
+            GameState gs = new GameState();
+            gs.currentBoardState = "xxxxxxxxxxxxxxxxxxxxxxxx";
+            gs.isPlayerOnesTurn = random.nextBoolean();
+            gs.playerOneUsername = "player" + random.nextInt(10000);
+            gs.playerTwoUsername = "player" + random.nextInt(10000);
+            gs.playerOneIsAutomated = random.nextBoolean();
+            gs.playerTwoIsAutomated = random.nextBoolean();
+            gs.playerOneUnplayedPieceCount = 9;
+            gs.playerTwoUnplayedPieceCount = 9;
+            if (i % interval == 0 && i / interval < myGameCount) {
+                gs.isPlayerOnesTurn = true;
+                gs.playerOneUsername = USERNAME;
+                gs.playerOneIsAutomated = true;
+            }
+            games[i] = gs;
+        }
+        return objectMapper.writeValueAsBytes(games);
+    }
+}
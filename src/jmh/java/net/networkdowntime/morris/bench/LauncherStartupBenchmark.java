@@ -0,0 +1,143 @@
+package net.networkdowntime.morris.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * Starting the wrapper from its jar and answering one move with the stub engine: the full jar with Spring, the slim jar, and
+ * the slim jar with an AppCDS archive, which is dumped by a first run when the build didn't make one (JDK 13 or newer).  Each
+ * measurement is one wrapper process, so the score is the time to a first move, and peakRssKb is the wrapper's peak resident
+ * memory, read from /proc while it runs (Linux, Java 9 or newer).
+ *
+ * Run after mvn package, from the project directory: mvn -P benchmarks verify -Djmh.args=LauncherStartupBenchmark
+ *
+ * @author rwiles
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LauncherStartupBenchmark {
+    public static final String FULL = "full";
+    public static final String SLIM = "slim";
+    public static final String SLIM_APPCDS = "slim-appcds";
+
+    @Param({ FULL, SLIM, SLIM_APPCDS })
+    public String launcher;
+
+    private List<String> command;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Memory {
+        // JMH adds up the counter of every measurement iteration, so each run's peak counts for its share of the mean
+        public long peakRssKb;
+        private int measurements;
+
+        @Setup
+        public void setup(BenchmarkParams params) {
+            measurements = Math.max(1, params.getMeasurement().getCount());
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        File target = new File("target");
+        File jar = findJar(target, SLIM.equals(launcher) || SLIM_APPCDS.equals(launcher));
+
+        File commandLineFile = File.createTempFile("stub-engine", ".txt");
+        commandLineFile.deleteOnExit();
+        Files.write(commandLineFile.toPath(), StubEngine.getCommandLine(StubEngine.STDIO).getBytes(StandardCharsets.UTF_8));
+
+        List<String> move = Arrays.asList("-jar", jar.getAbsolutePath(), "move", StubEngine.BOARD_STATE, "0", commandLineFile.getPath(), commandLineFile.getPath());
+        command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        if (SLIM_APPCDS.equals(launcher)) {
+            File archive = new File(jar.getPath().replaceAll("\\.jar$", ".jsa"));
+            if (!archive.isFile()) {
+                List<String> dump = new ArrayList<String>(command);
+                dump.add("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath());
+                dump.addAll(move);
+                run(dump, null);
+            }
+            command.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        }
+        command.addAll(move);
+    }
+
+    @Benchmark
+    public String firstMove(Memory memory) throws Exception {
+        return run(command, memory);
+    }
+
+    private static String run(List<String> command, Memory memory) throws Exception {
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        File status = new File("/proc/" + getPid(process) + "/status");
+        List<String> output = new ArrayList<String>();
+        Thread reader = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                for (String line = in.readLine(); line != null; line = in.readLine())
+                    output.add(line);
+            } catch (IOException e) {}
+        });
+        reader.start();
+
+        long peakRssKb = 0;
+        while (!process.waitFor(5, TimeUnit.MILLISECONDS))
+            peakRssKb = Math.max(peakRssKb, readPeakRssKb(status));
+        reader.join();
+        if (memory != null) memory.peakRssKb = peakRssKb / memory.measurements;
+        if (process.exitValue() != 0) throw new IllegalStateException(command + " exited with " + process.exitValue() + ": " + output);
+        return output.isEmpty() ? null : output.get(output.size() - 1);
+    }
+
+    // the full jar is the one without a classifier, the slim jar is classified slim
+    private static File findJar(File target, boolean slim) {
+        File[] jars = target.listFiles((dir, name) -> name.endsWith(slim ? "-slim.jar" : ".jar") && (slim || !name.endsWith("-slim.jar")));
+        if (jars == null || jars.length == 0) throw new IllegalStateException("No " + (slim ? "slim" : "full") + " wrapper jar in " + target.getAbsolutePath() + ", run mvn package first");
+        return jars[0];
+    }
+
+    // Process.pid() is Java 9
+    private static long getPid(Process process) {
+        try {
+            return (Long) Process.class.getMethod("pid").invoke(process);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static long readPeakRssKb(File status) {
+        try {
+            for (String line : Files.readAllLines(status.toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmHWM:")) return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        } catch (IOException | RuntimeException e) {}
+        return 0;
+    }
+}
@@ -0,0 +1,55 @@
+package net.networkdowntime.morris.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.networkdowntime.morris.MoveHandler;
+import net.networkdowntime.morris.dtos.GameState;
+
+/**
+ * A move end to end through MoveHandler.getNextMove: the hop onto the move executor, the engine command and the move log.  With
+ * the in-process stub engine this is the wrapper's own cost per move, with the files stub it adds the default engine round trip.
+ *
+ * @author rwiles
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveHandlerBenchmark {
+
+    @Param({ StubEngine.IN_PROCESS, StubEngine.FILES })
+    public String engine;
+
+    private GameState gameState;
+
+    @Setup
+    public void setup() throws Exception {
+        MoveHandler.openingCommandLine = StubEngine.getCommandLine(engine);
+        MoveHandler.gameCommandLine = MoveHandler.openingCommandLine;
+        MoveHandler.startEngineWorkers();
+
+        gameState = new GameState();
+        gameState.currentBoardState = StubEngine.BOARD_STATE;
+        gameState.isPlayerOnesTurn = true;
+    }
+
+    @Benchmark
+    public String getNextMove() throws Exception {
+        return MoveHandler.getNextMove(gameState, 0);
+    }
+}
@@ -0,0 +1,40 @@
+package net.networkdowntime.morris.bench;
+
+import java.io.File;
+import java.util.List;
+
+import net.networkdowntime.morris.engine.MoveEngine;
+
+/**
+ * An engine that answers instantly with the board it was given, so a benchmark measures the wrapper and not the search.  The
+ * same trivial engine is available in process, over standard in/out (cat) and over the work files (cp).
+ *
+ * @author rwiles
+ *
+ */
+public class StubEngine implements MoveEngine {
+    public static final String IN_PROCESS = "inProcess";
+    public static final String STDIO = "stdio";
+    public static final String FILES = "files";
+
+    // a mid-game board, so the opening book is never consulted
+    public static final String BOARD_STATE = "WxBxWBxxWBxxBxWxxBxWxxBW";
+
+    @Override
+    public String nextMove(String boardState, Phase phase, List<String> parameters) {
+        return boardState;
+    }
+
+    /**
+     * The command line file contents that run the stub engine the given way, without the move cache.
+     */
+    public static String getCommandLine(String engine) throws Exception {
+        if (IN_PROCESS.equals(engine)) {
+            String classpath = new File(StubEngine.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+            return "@engine=" + classpath + "\n@cache=off\n" + StubEngine.class.getSimpleName();
+        }
+        if (STDIO.equals(engine)) return "@io=stdio\n@cache=off\ncat";
+        if (FILES.equals(engine)) return "@workDir=ram\n@cache=off\ncp MOVE_INPUT_FILE MOVE_OUTPUT_FILE";
+        throw new IllegalArgumentException("Unknown stub engine " + engine);
+    }
+}
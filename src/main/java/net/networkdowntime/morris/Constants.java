@@ -5,4 +5,12 @@ public class Constants {
     public static final String GAME_COMMAND_LINE_FILE = "commandLineMidGameEndGameEstimator.txt";
     public static final String MOVE_INPUT_FILE = "MOVE_INPUT_FILE";
     public static final String MOVE_OUTPUT_FILE = "MOVE_OUTPUT_FILE";
+
+    // how many milliseconds a Mode 1 move request may take, sent by the game server, the load generator and the dispatcher
+    public static final String MOVE_TIMEOUT_HEADER = "X-Move-Timeout";
+
+    // board state characters, the engine always plays white
+    public static final char WHITE = 'W';
+    public static final char BLACK = 'B';
+    public static final char EMPTY = 'x';
 }
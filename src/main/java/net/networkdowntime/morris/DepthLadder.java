@@ -0,0 +1,199 @@
+package net.networkdowntime.morris;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.networkdowntime.morris.engine.EngineCommand;
+import net.networkdowntime.morris.metrics.Metrics;
+
+/**
+ * Races a command against the deeper variants listed in its @ladder option, each rung of the ladder on its own core, and
+ * answers with the deepest rung that finished within the command's time budget.  The race is over as soon as the deepest rung
+ * answers, or when the budget runs out and a rung has answered; the rungs still searching are then interrupted, which kills
+ * their engine processes.  A rung's own @timeout isn't used, every rung gets the budget of the command the ladder is on.
+ *
+ * The extra rungs only run on cores that are spare: when the moves being computed and the rungs of other races would leave
+ * fewer cores than a ladder needs, the command runs alone, so a busy wrapper doesn't get slower by racing.  Pondered moves
+ * aren't raced, their threads aren't counted in the cores.  The wins of every rung, by phase, are counted in
+ * morris_ladder_wins_total for tuning the ladder.
+ *
+ * Settings (Java system properties):
+ *      morris.ladder.cores: how many cores the moves and ladder rungs may keep busy together (default: number of cores)
+ *
+ * @author rwiles
+ *
+ */
+public class DepthLadder {
+    static final Logger log = LogManager.getLogger(DepthLadder.class);
+
+    public static final String CORES_PROPERTY = "morris.ladder.cores";
+
+    private static final int cores = Math.max(1, Integer.getInteger(CORES_PROPERTY, Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService rungPool = Executors.newCachedThreadPool(new NamedThreadFactory("ladder-rung"));
+    private static final AtomicInteger extraRungsRunning = new AtomicInteger();
+    private static final ConcurrentMap<String, List<EngineCommand>> ladders = new ConcurrentHashMap<String, List<EngineCommand>>(); // by command
+
+    /**
+     * Runs one rung's engine on a rung thread.
+     */
+    interface RungEngine {
+        String nextMove(EngineCommand rung, long budgetMillis) throws Exception;
+    }
+
+    /**
+     * The rung that won a race and its move.
+     */
+    static class Win {
+        final int rung;
+        final String move;
+
+        Win(int rung, String move) {
+            this.rung = rung;
+            this.move = move;
+        }
+    }
+
+    /**
+     * The command and the deeper variants of its ladder, shallowest first; only the command when it doesn't have a ladder.  The
+     * ladder's files are read the first time a command asks for them and kept for the life of the process.
+     */
+    static List<EngineCommand> getRungs(EngineCommand engineCommand) throws Exception {
+        if (engineCommand.getOption(EngineCommand.LADDER_OPTION) == null) return Collections.singletonList(engineCommand);
+        List<EngineCommand> rungs = ladders.get(engineCommand.toString());
+        if (rungs != null) return rungs;
+
+        rungs = new ArrayList<EngineCommand>();
+        rungs.add(engineCommand);
+        for (String fileName : engineCommand.getLadder())
+            rungs.add(EngineCommand.parse(Utils.getFileAsString(fileName).trim()));
+        rungs = Collections.unmodifiableList(rungs);
+        List<EngineCommand> known = ladders.putIfAbsent(engineCommand.toString(), rungs);
+        return known != null ? known : rungs;
+    }
+
+    /**
+     * Takes cores for the rungs a race runs besides the move's own, when that many are spare.
+     */
+    static boolean reserveCores(int extraRungs) {
+        while (true) {
+            int running = extraRungsRunning.get();
+            if (MoveExecutor.getActiveCount() + running + extraRungs > cores) {
+                Metrics.LADDER_SKIPPED.increment();
+                return false;
+            }
+            if (extraRungsRunning.compareAndSet(running, running + extraRungs)) return true;
+        }
+    }
+
+    /**
+     * Races the rungs, after reserveCores() took cores for all but the first.  Every rung failing fails the race with the
+     * first rung's failure.
+     *
+     * @param budgetMillis how long the race may take, 0 for no limit
+     */
+    static Win race(String gamePhase, List<EngineCommand> rungs, long budgetMillis, RungEngine engine) throws Exception {
+        Race race = new Race(rungs.size());
+        for (int i = 0; i < rungs.size(); i++) {
+            final int rung = i;
+            rungPool.execute(() -> race.run(rung, rungs.get(rung), budgetMillis, engine));
+        }
+
+        int winner;
+        try {
+            winner = race.await(budgetMillis);
+        } finally {
+            race.end();
+        }
+        if (winner == rungs.size()) throw race.failures[0];
+
+        String rungLabel = gamePhase + ": " + rungs.get(winner).getCommandLine();
+        Metrics.LADDER_WINS.increment(rungLabel);
+        log.info("Ladder rung " + (winner + 1) + " of " + rungs.size() + " won, " + rungLabel);
+        return new Win(winner, race.moves[winner]);
+    }
+
+    private static class Race {
+        final String[] moves;
+        final Exception[] failures;
+        final Thread[] threads;
+        boolean over = false;
+
+        Race(int rungCount) {
+            moves = new String[rungCount];
+            failures = new Exception[rungCount];
+            threads = new Thread[rungCount];
+        }
+
+        void run(int rung, EngineCommand engineCommand, long budgetMillis, RungEngine engine) {
+            try {
+                synchronized (this) {
+                    if (over) {
+                        failures[rung] = new InterruptedException("The race was over before the rung started");
+                        return;
+                    }
+                    threads[rung] = Thread.currentThread();
+                }
+
+                String move = null;
+                Exception failure = null;
+                try {
+                    move = engine.nextMove(engineCommand, budgetMillis);
+                } catch (Throwable t) {
+                    failure = t instanceof Exception ? (Exception) t : new Exception(t);
+                }
+                if (move == null && failure == null) failure = new Exception("The rung did not produce a move");
+
+                synchronized (this) {
+                    threads[rung] = null;
+                    moves[rung] = move;
+                    failures[rung] = failure;
+                    notifyAll();
+                }
+                Thread.interrupted(); // an interrupt that came after the engine answered mustn't reach the pool's next rung
+            } finally {
+                if (rung > 0) extraRungsRunning.decrementAndGet();
+            }
+        }
+
+        /**
+         * Waits for the deepest rung that answered once no deeper one can, or once the budget ran out; the number of rungs
+         * when they all failed.
+         */
+        synchronized int await(long budgetMillis) throws InterruptedException {
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+            while (true) {
+                int deepestAnswer = -1;
+                boolean deeperRunning = false;
+                for (int i = moves.length - 1; i >= 0 && deepestAnswer < 0; i--) {
+                    if (moves[i] != null) deepestAnswer = i;
+                    else if (failures[i] == null) deeperRunning = true;
+                }
+                if (deepestAnswer >= 0 && !deeperRunning) return deepestAnswer;
+                if (deepestAnswer < 0 && !deeperRunning) return moves.length;
+
+                long left = end - System.nanoTime();
+                if (budgetMillis > 0 && left <= 0 && deepestAnswer >= 0) return deepestAnswer;
+                // with nothing answered when the budget ran out, the rungs are about to run out of time on their own
+                if (budgetMillis > 0 && left > 0) TimeUnit.NANOSECONDS.timedWait(this, left);
+                else wait();
+            }
+        }
+
+        synchronized void end() {
+            over = true;
+            for (Thread thread : threads)
+                if (thread != null) thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package net.networkdowntime.morris;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import net.networkdowntime.morris.dtos.GameState;
+
+/**
+ * Reads a JSON list of games straight from a response stream, keeping only the games an account cares about.
+ *
+ * Each game's tokens are logged into reusable arrays while the fields that decide whether it is one of the account's automated
+ * games go by; as soon as those fields rule the game out the rest of it is skipped, so a skipped game allocates next to nothing.
+ * Games that are kept are replayed from the log and bound with a precompiled reader.  The final decision is always made on the bound GameState, so a
+ * server that names the fields differently only loses the early skipping.
+ *
+ * @author rwiles
+ *
+ */
+public class GameListReader {
+    private static final ObjectMapper objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final ObjectReader gameReader = objectMapper.readerFor(GameState.class);
+    private static final JsonFactory jsonFactory = objectMapper.getFactory();
+
+    /**
+     * The games where it's the user's turn and the user plays through this wrapper.
+     */
+    public static List<GameState> readAutomated(InputStream in, String username) throws IOException {
+        return read(in, username, true, false);
+    }
+
+    /**
+     * The games the user plays through this wrapper, whoever's turn it is.
+     */
+    public static List<GameState> readPlayedHere(InputStream in, String username) throws IOException {
+        return read(in, username, true, true);
+    }
+
+    /**
+     * Every other game.
+     */
+    public static List<GameState> readNotAutomated(InputStream in, String username) throws IOException {
+        return read(in, username, false, false);
+    }
+
+    /**
+     * True when the user plays player one through this wrapper, whoever's turn it is.
+     */
+    public static boolean playsPlayerOne(GameState gs, String username) {
+        return username.equals(gs.playerOneUsername) && gs.playerOneIsAutomated && StringUtils.isEmpty(gs.playerOneAiEndpoint);
+    }
+
+    /**
+     * True when the user plays player two through this wrapper, whoever's turn it is.
+     */
+    public static boolean playsPlayerTwo(GameState gs, String username) {
+        return username.equals(gs.playerTwoUsername) && gs.playerTwoIsAutomated && StringUtils.isEmpty(gs.playerTwoAiEndpoint);
+    }
+
+    public static boolean isPlayerOne(GameState gs, String username) {
+        return gs.isPlayerOnesTurn && playsPlayerOne(gs, username);
+    }
+
+    public static boolean isPlayerTwo(GameState gs, String username) {
+        return !gs.isPlayerOnesTurn && playsPlayerTwo(gs, username);
+    }
+
+    public static boolean isAutomated(GameState gs, String username) {
+        return isPlayerOne(gs, username) || isPlayerTwo(gs, username);
+    }
+
+    private static boolean isPlayedHere(GameState gs, String username) {
+        return playsPlayerOne(gs, username) || playsPlayerTwo(gs, username);
+    }
+
+    // anyTurn keeps the user's automated games whoever's turn it is
+    private static List<GameState> read(InputStream in, String username, boolean automated, boolean anyTurn) throws IOException {
+        List<GameState> games = new ArrayList<GameState>();
+        TokenLog tokens = new TokenLog();
+        SeenFields seen = new SeenFields(tokens);
+
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) throw new JsonParseException("Expected a list of games", parser.getCurrentLocation());
+
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == null) throw new JsonParseException("The list of games ended early", parser.getCurrentLocation());
+                if (token != JsonToken.START_OBJECT) {
+                    parser.skipChildren(); // nulls and anything else that isn't a game
+                    continue;
+                }
+
+                tokens.clear();
+                seen.clear();
+                GameState game = readGame(parser, tokens, seen, username, automated, anyTurn);
+                if (game != null && (anyTurn ? isPlayedHere(game, username) : isAutomated(game, username)) == automated) games.add(game);
+            }
+        }
+        return games;
+    }
+
+    // the parser is on the game's START_OBJECT and is left on its END_OBJECT; null if the game was skipped
+    private static GameState readGame(JsonParser parser, TokenLog tokens, SeenFields seen, String username, boolean automated, boolean anyTurn) throws IOException {
+        tokens.add(parser);
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            tokens.add(parser);
+            parser.nextToken();
+            seen.record(name, tokens.size());
+            tokens.addStructure(parser);
+
+            // only ever rules a game out early, keeping a game needs every field
+            if (automated && seen.rulesOut(username, anyTurn)) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+                return null;
+            }
+        }
+        tokens.add(parser);
+
+        TokenBuffer buffer = new TokenBuffer(objectMapper, false);
+        tokens.replay(buffer);
+        return gameReader.readValue(buffer.asParser(objectMapper));
+    }
+
+    /**
+     * Where the fields isAutomated() and isPlayedHere() look at are in the token log, as far as they've been read.
+     */
+    private static class SeenFields {
+        final TokenLog tokens;
+        int isPlayerOnesTurn;
+        final Side one = new Side();
+        final Side two = new Side();
+
+        SeenFields(TokenLog tokens) {
+            this.tokens = tokens;
+        }
+
+        void clear() {
+            isPlayerOnesTurn = -1;
+            one.clear();
+            two.clear();
+        }
+
+        void record(String name, int index) {
+            switch (name) {
+                case "isPlayerOnesTurn":
+                    isPlayerOnesTurn = index;
+                    break;
+                case "playerOneUsername":
+                    one.username = index;
+                    break;
+                case "playerTwoUsername":
+                    two.username = index;
+                    break;
+                case "playerOneIsAutomated":
+                    one.isAutomated = index;
+                    break;
+                case "playerTwoIsAutomated":
+                    two.isAutomated = index;
+                    break;
+                case "playerOneAiEndpoint":
+                    one.aiEndpoint = index;
+                    break;
+                case "playerTwoAiEndpoint":
+                    two.aiEndpoint = index;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        boolean rulesOut(String username, boolean anyTurn) {
+            if (anyTurn) return rulesOut(one, username) && rulesOut(two, username);
+            JsonToken turn = isPlayerOnesTurn < 0 ? null : tokens.tokens[isPlayerOnesTurn];
+            if (turn == JsonToken.VALUE_TRUE) return rulesOut(one, username);
+            if (turn == JsonToken.VALUE_FALSE) return rulesOut(two, username);
+            return rulesOut(one, username) && rulesOut(two, username);
+        }
+
+        private boolean rulesOut(Side side, String username) {
+            if (side.username >= 0 && tokens.isText(side.username) && !tokens.textEquals(side.username, username)) return true;
+            if (side.isAutomated >= 0 && tokens.tokens[side.isAutomated] == JsonToken.VALUE_FALSE) return true;
+            return side.aiEndpoint >= 0 && tokens.tokens[side.aiEndpoint] == JsonToken.VALUE_STRING && tokens.textLength[side.aiEndpoint] > 0;
+        }
+    }
+
+    private static class Side {
+        int username;
+        int isAutomated;
+        int aiEndpoint;
+
+        void clear() {
+            username = isAutomated = aiEndpoint = -1;
+        }
+    }
+
+    /**
+     * The tokens of one game, kept in reusable arrays with text as ranges of one char buffer, so a game that is skipped doesn't
+     * leave any objects behind.
+     */
+    private static class TokenLog {
+        JsonToken[] tokens = new JsonToken[64];
+        String[] names = new String[64];
+        long[] longs = new long[64];
+        double[] doubles = new double[64];
+        Object[] objects = new Object[64]; // big numbers and embedded objects
+        int[] textStart = new int[64];
+        int[] textLength = new int[64];
+        char[] text = new char[1024];
+        int size = 0;
+        int textSize = 0;
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            Arrays.fill(objects, 0, size, null);
+            size = 0;
+            textSize = 0;
+        }
+
+        // the current token and, for the start of an object or array, everything up to its end
+        void addStructure(JsonParser parser) throws IOException {
+            add(parser);
+            int depth = parser.getCurrentToken().isStructStart() ? 1 : 0;
+            while (depth > 0) {
+                JsonToken token = parser.nextToken();
+                if (token == null) throw new JsonParseException("A game ended early", parser.getCurrentLocation());
+                add(parser);
+                if (token.isStructStart()) depth++;
+                else if (token.isStructEnd()) depth--;
+            }
+        }
+
+        void add(JsonParser parser) throws IOException {
+            if (size == tokens.length) grow();
+            JsonToken token = parser.getCurrentToken();
+            tokens[size] = token;
+            switch (token) {
+                case FIELD_NAME:
+                    names[size] = parser.getCurrentName();
+                    break;
+                case VALUE_STRING:
+                    int length = parser.getTextLength();
+                    if (textSize + length > text.length) text = Arrays.copyOf(text, Math.max(text.length * 2, textSize + length));
+                    System.arraycopy(parser.getTextCharacters(), parser.getTextOffset(), text, textSize, length);
+                    textStart[size] = textSize;
+                    textLength[size] = length;
+                    textSize += length;
+                    break;
+                case VALUE_NUMBER_INT:
+                    if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) objects[size] = parser.getBigIntegerValue();
+                    else longs[size] = parser.getLongValue();
+                    break;
+                case VALUE_NUMBER_FLOAT:
+                    if (parser.getNumberType() == JsonParser.NumberType.BIG_DECIMAL) objects[size] = parser.getDecimalValue();
+                    else doubles[size] = parser.getDoubleValue();
+                    break;
+                case VALUE_EMBEDDED_OBJECT:
+                    objects[size] = parser.getEmbeddedObject();
+                    break;
+                default:
+                    break;
+            }
+            size++;
+        }
+
+        boolean isText(int index) {
+            return tokens[index] == JsonToken.VALUE_STRING || tokens[index] == JsonToken.VALUE_NULL;
+        }
+
+        boolean textEquals(int index, String value) {
+            if (tokens[index] != JsonToken.VALUE_STRING || textLength[index] != value.length()) return false;
+            for (int i = 0; i < textLength[index]; i++)
+                if (text[textStart[index] + i] != value.charAt(i)) return false;
+            return true;
+        }
+
+        void replay(TokenBuffer buffer) throws IOException {
+            for (int i = 0; i < size; i++) {
+                switch (tokens[i]) {
+                    case START_OBJECT:
+                        buffer.writeStartObject();
+                        break;
+                    case END_OBJECT:
+                        buffer.writeEndObject();
+                        break;
+                    case START_ARRAY:
+                        buffer.writeStartArray();
+                        break;
+                    case END_ARRAY:
+                        buffer.writeEndArray();
+                        break;
+                    case FIELD_NAME:
+                        buffer.writeFieldName(names[i]);
+                        break;
+                    case VALUE_STRING:
+                        buffer.writeString(text, textStart[i], textLength[i]);
+                        break;
+                    case VALUE_NUMBER_INT:
+                        if (objects[i] != null) buffer.writeNumber((BigInteger) objects[i]);
+                        else if (longs[i] == (int) longs[i]) buffer.writeNumber((int) longs[i]);
+                        else buffer.writeNumber(longs[i]);
+                        break;
+                    case VALUE_NUMBER_FLOAT:
+                        if (objects[i] != null) buffer.writeNumber((BigDecimal) objects[i]);
+                        else buffer.writeNumber(doubles[i]);
+                        break;
+                    case VALUE_TRUE:
+                        buffer.writeBoolean(true);
+                        break;
+                    case VALUE_FALSE:
+                        buffer.writeBoolean(false);
+                        break;
+                    case VALUE_NULL:
+                        buffer.writeNull();
+                        break;
+                    case VALUE_EMBEDDED_OBJECT:
+                        buffer.writeObject(objects[i]);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        private void grow() {
+            int capacity = tokens.length * 2;
+            tokens = Arrays.copyOf(tokens, capacity);
+            names = Arrays.copyOf(names, capacity);
+            longs = Arrays.copyOf(longs, capacity);
+            doubles = Arrays.copyOf(doubles, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+            textStart = Arrays.copyOf(textStart, capacity);
+            textLength = Arrays.copyOf(textLength, capacity);
+        }
+    }
+}
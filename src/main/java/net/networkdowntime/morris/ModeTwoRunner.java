@@ -1,23 +1,32 @@
 package net.networkdowntime.morris;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.http.client.CookieStore;
-import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.springframework.util.StringUtils;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import net.networkdowntime.morris.board.Bitboard;
 import net.networkdowntime.morris.dtos.GameState;
 import net.networkdowntime.morris.dtos.JoinGameRequest;
 import net.networkdowntime.morris.dtos.LoginRequest;
 import net.networkdowntime.morris.dtos.MoveRequest;
 import net.networkdowntime.morris.dtos.NewGameRequest;
+import net.networkdowntime.morris.http.ConditionalGet;
+import net.networkdowntime.morris.http.HttpTransport;
+import net.networkdowntime.morris.metrics.Metrics;
+import net.networkdowntime.morris.scheduling.PollScheduler;
 
 /**
  * Mode 2 - Client Poll Mode:
@@ -40,7 +49,7 @@ import net.networkdowntime.morris.dtos.NewGameRequest;
  * @author rwiles
  *
  */
-public class ModeTwoRunner {
+public class ModeTwoRunner implements Runnable {
     static final Logger log = LogManager.getLogger(ModeTwoRunner.class);
 
     private static final String LOGIN_ENDPOINT = "/api/user/login";
@@ -56,7 +65,9 @@ public class ModeTwoRunner {
         LoggedOut, GamePolling, GamePlaying, OpenGame, JoinGame, NewGame
     };
 
-    ObjectMapper objectMapper = new ObjectMapper();
+    // shared by every account in the process
+    static final ObjectMapper objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    static final HttpTransport transport = HttpTransport.shared();
 
     CookieStore cookieStore = new BasicCookieStore();
     String server;
@@ -66,12 +77,25 @@ public class ModeTwoRunner {
     List<GameState> myOpenGames = new ArrayList<GameState>();
     int myOpenGameCount = 0;
     String username;
+    String password;
+
+    // games with a move being computed or submitted
+    Set<Long> movesInFlight = ConcurrentHashMap.newKeySet();
+    PollScheduler scheduler = new PollScheduler();
+    Ponderer ponderer = new Ponderer();
+    ConditionalGet conditionalGet = new ConditionalGet(transport, cookieStore);
 
     public ModeTwoRunner(String username, String password, String server) {
-        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
         this.server = server;
         this.username = username;
+        this.password = password;
+    }
 
+    /**
+     * Plays as this account until the process ends.
+     */
+    @Override
+    public void run() {
         do {
             switch (state) {
                 case LoggedOut:
@@ -95,25 +119,26 @@ public class ModeTwoRunner {
                 default:
                     break;
             }
-            try {
-                synchronized (this) {
-                    this.wait(1 * 1000);
-                }
-            } catch (InterruptedException e) {}
+            scheduler.sleep(1 * 1000);
         } while (true);
     }
 
-    private boolean isAutomated(GameState gs) {
-        return (gs.isPlayerOnesTurn && username.equals(gs.playerOneUsername) && gs.playerOneIsAutomated && StringUtils.isEmpty(gs.playerOneAiEndpoint)) // 
-                || (!gs.isPlayerOnesTurn && username.equals(gs.playerTwoUsername) && gs.playerTwoIsAutomated && StringUtils.isEmpty(gs.playerTwoAiEndpoint));
-    }
-
     private boolean isPlayerOne(GameState gs) {
-        return (gs.isPlayerOnesTurn && username.equals(gs.playerOneUsername) && gs.playerOneIsAutomated && StringUtils.isEmpty(gs.playerOneAiEndpoint));
+        return GameListReader.isPlayerOne(gs, username);
     }
 
     private boolean isPlayerTwo(GameState gs) {
-        return (!gs.isPlayerOnesTurn && username.equals(gs.playerTwoUsername) && gs.playerTwoIsAutomated && StringUtils.isEmpty(gs.playerTwoAiEndpoint));
+        return GameListReader.isPlayerTwo(gs, username);
+    }
+
+    // my automated games where it's my turn, read straight from the response
+    private List<GameState> readAutomatedGames(InputStream in) throws IOException {
+        return GameListReader.readAutomated(in, username);
+    }
+
+    // every game I play through this wrapper, whoever's turn it is, so waiting on an opponent is timed too
+    private List<GameState> readPlayedGames(InputStream in) throws IOException {
+        return GameListReader.readPlayedHere(in, username);
     }
 
     // Logged Out State: Wrapper POSTs a login request on startup, tracks the sessionId or cookie, them moves to the Game Polling State.
@@ -125,7 +150,7 @@ public class ModeTwoRunner {
 
         do {
             try {
-                HttpClientUtils.doPostJsonReturnText(server + LOGIN_ENDPOINT, loginRequest, cookieStore);
+                HttpTransport.await(transport.postJson(server + LOGIN_ENDPOINT, loginRequest, cookieStore));
                 return State.GamePolling;
             } catch (Exception e) {
                 failCount++;
@@ -138,17 +163,13 @@ public class ModeTwoRunner {
                 }
             }
 
-            try {
-                synchronized (this) {
-                    if (failCount < 5) {
-                        System.out.println("Login for user " + username + " failed. Waiting for 10 seconds before trying again.");
-                        this.wait(10000);
-                    } else {
-                        System.out.println("Login for user " + username + " failed 5 time. Waiting for 5 minutes before trying again.");
-                        this.wait(5 * 60 * 1000);
-                    }
-                }
-            } catch (InterruptedException e) {}
+            if (failCount < 5) {
+                System.out.println("Login for user " + username + " failed. Waiting for 10 seconds before trying again.");
+                scheduler.sleep(10000);
+            } else {
+                System.out.println("Login for user " + username + " failed 5 time. Waiting for 5 minutes before trying again.");
+                scheduler.sleep(5 * 60 * 1000);
+            }
         } while (this.state == State.LoggedOut);
         return State.LoggedOut;
     }
@@ -158,12 +179,9 @@ public class ModeTwoRunner {
         System.out.println("Entering Game Polling State:");
 
         try {
-            String json = HttpClientUtils.doGet(server + MY_ACTIVE_GAMES_ENDPOINT, cookieStore, ContentType.APPLICATION_JSON);
-            GameState[] games = objectMapper.readValue(json, GameState[].class);
-
             activeGames.clear();
-            for (GameState gs : games)
-                if (gs != null && isAutomated(gs)) activeGames.add(gs);
+            activeGames.addAll(conditionalGet.get(server + MY_ACTIVE_GAMES_ENDPOINT, this::readPlayedGames).value);
+            ponderer.retainGames(getActiveGameIds());
 
             if (activeGames.isEmpty()) return State.OpenGame;
             else return State.GamePlaying;
@@ -178,80 +196,61 @@ public class ModeTwoRunner {
         }
     }
 
+    private List<Long> getActiveGameIds() {
+        List<Long> activeGameIds = new ArrayList<Long>();
+        for (GameState gs : activeGames)
+            activeGameIds.add((long) gs.id);
+        return activeGameIds;
+    }
+
     // Game Playing State: For Each Active Game: 
     //        Is Player’s Turn: Propose next move based on the GameState
-    //        Not Player’s Turn: Poll game activeGames every 20 seconds until player’s turn
+    //        Not Player’s Turn: Poll game activeGames until player’s turn, timed by how quickly the opponent usually moves
+    // Moves for different games are computed and submitted concurrently, a game never has more than one move in flight.
+    // The next poll is timed by the poll scheduler from how quickly each opponent usually moves.
     private State doGamePlaying() {
         System.out.println("Entering Game Playing State:");
         try {
             do {
-                String json = HttpClientUtils.doGet(server + MY_ACTIVE_GAMES_ENDPOINT, cookieStore, ContentType.APPLICATION_JSON);
-                GameState[] games = objectMapper.readValue(json, GameState[].class);
+                ConditionalGet.Result<List<GameState>> result = conditionalGet.get(server + MY_ACTIVE_GAMES_ENDPOINT, this::readPlayedGames);
 
                 activeGames.clear();
-                for (GameState gs : games)
-                    if (gs != null && isAutomated(gs)) activeGames.add(gs);
+                activeGames.addAll(result.value);
+                List<Long> activeGameIds = getActiveGameIds();
+                scheduler.retainGames(activeGameIds);
+                ponderer.retainGames(activeGameIds);
 
-                System.out.println("\tI have " + activeGames.size() + " games");
+                System.out.println("\tI have " + activeGames.size() + " games" + (result.modified ? "" : " (unchanged)"));
 
-                boolean notMyTurn = false;
+                boolean dispatchedMove = false;
                 for (GameState gameState : activeGames) {
                     boolean isPlayerOne = isPlayerOne(gameState);
                     boolean isPlayerTwo = isPlayerTwo(gameState);
                     boolean isMyTurn = (gameState.isPlayerOnesTurn && isPlayerOne) // 
                             || (!gameState.isPlayerOnesTurn && isPlayerTwo);
 
-                    String opponent = username.equals(gameState.playerOneUsername) && gameState.playerOneIsAutomated ? gameState.playerTwoUsername : gameState.playerOneUsername;
+                    String opponent = GameListReader.playsPlayerOne(gameState, username) ? gameState.playerTwoUsername : gameState.playerOneUsername;
 
+                    long gameId = gameState.id;
+                    if (isMyTurn && movesInFlight.contains(gameId)) {
+                        System.out.println("\tGame Id " + gameState.id + "; My move is still being computed");
+                        continue;
+                    }
                     System.out.println("\tGame Id " + gameState.id + "; " + ((isMyTurn) ? "It's my turn" : "It's not my turn, waiting on " + opponent));
+                    scheduler.gamePolled(gameId, isMyTurn);
 
                     // is it my turn?
-                    if (isMyTurn) {
-                        notMyTurn = true;
-                        String nextMove = null;
-
-                        System.out.println("        " + gameState.currentBoardState + "; is player 1's turn: " + gameState.isPlayerOnesTurn + "; player 1 unplayed pieces: " + gameState.playerOneUnplayedPieceCount + "; player 2 unplayed pieces: "
-                                + gameState.playerTwoUnplayedPieceCount);
-
-                        if (gameState.isPlayerOnesTurn) {
-                            nextMove = MoveHandler.getNextMove(gameState, gameState.playerOneUnplayedPieceCount);
-                        } else { // I'm Player 2, need to swap the board state
-                            gameState.swapPlayers('W', 'B');
-                            nextMove = MoveHandler.getNextMove(gameState, gameState.playerOneUnplayedPieceCount);
-                            gameState.swapPlayers('W', 'B');
-                            nextMove = Utils.swapBoardState(nextMove, 'W', 'B');
-                        }
-
-                        MoveRequest moveRequest = new MoveRequest();
-                        moveRequest.gameId = gameState.id;
-                        moveRequest.playerName = username;
-                        moveRequest.boardState = nextMove;
-
-                        try {
-                            json = HttpClientUtils.doPostJsonReturnJson(server + APPLY_MOVE_ENDPOINT, moveRequest, cookieStore);
-                            GameState moveGameState = objectMapper.readValue(json, GameState.class);
-                            System.out.println(Utils.highlightMove("    Game Id:" + gameState.id + "; Move #" + moveGameState.numberOfMovesMade, gameState.currentBoardState, moveGameState.currentBoardState, gameState.isPlayerOnesTurn));
-                        } catch (Exception e) {
-                            log.debug(e.getMessage());
-                            if (log.isDebugEnabled()) e.printStackTrace();
-                            System.out.println(Utils.highlightMove("    Move Rejected By Server: Game Id:" + gameState.id, gameState.currentBoardState, nextMove, gameState.isPlayerOnesTurn));
-                        }
+                    if (isMyTurn && movesInFlight.add(gameId)) {
+                        dispatchedMove = true;
+                        scheduler.moveDispatched(gameId);
+                        dispatchMove(gameState);
                     }
                 }
-                if (!notMyTurn && activeGames.size() > 0) {
-                    try {
-                        synchronized (this) {
-                            System.out.println("I have " + activeGames.size() + " active games, but it's not my turn. Waiting for 20s");
-                            this.wait(20 * 1000);
-                        }
-                    } catch (InterruptedException e) {}
+                if (!activeGames.isEmpty()) {
+                    long delay = scheduler.nextGamePollDelay();
+                    if (!dispatchedMove && movesInFlight.isEmpty()) System.out.println("I have " + activeGames.size() + " active games, but it's not my turn. Next poll in " + delay + "ms");
+                    scheduler.sleep(delay);
                 }
-                try {
-                    synchronized (this) {
-                        System.out.println("Game Playing loop slow down 2s");
-                        this.wait(2 * 1000);
-                    }
-                } catch (InterruptedException e) {}
             } while (!activeGames.isEmpty());
         } catch (Exception e) {
             log.info("Got an error getting active games.  Going to try logging in again.");
@@ -264,6 +263,96 @@ public class ModeTwoRunner {
         return State.GamePolling;
     }
 
+    // Computes the move on the move executor, then submits it to the server from the game workers without holding up other games
+    private void dispatchMove(final GameState gameState) {
+        final long gameId = gameState.id;
+        final boolean isPlayerOnesTurn = gameState.isPlayerOnesTurn;
+
+        System.out.println("        " + gameState.currentBoardState + "; is player 1's turn: " + gameState.isPlayerOnesTurn + "; player 1 unplayed pieces: " + gameState.playerOneUnplayedPieceCount + "; player 2 unplayed pieces: "
+                + gameState.playerTwoUnplayedPieceCount);
+
+        // the engine always plays white as player one, as player two it gets a swapped copy so the polled game state stays as
+        // the server sent it for every stage below
+        final GameState engineGameState = isPlayerOnesTurn ? gameState : swapPlayers(gameState);
+
+        getNextMove(engineGameState).handle((engineMove, error) -> {
+            if (error == null) {
+                String nextMove = isPlayerOnesTurn ? engineMove : Bitboard.swapColors(engineMove);
+                return submitMove(gameState, nextMove).thenApply(accepted -> {
+                    if (accepted && Ponderer.isEnabled()) ponderer.ponder(engineGameState, engineMove); // as the engine sees it, us as white
+                    return accepted;
+                });
+            }
+            log.info("Unable to compute a move for game id " + gameState.id + ": " + error.getMessage());
+            return CompletableFuture.completedFuture(false);
+        }).thenCompose(accepted -> accepted).whenComplete((accepted, error) -> {
+            movesInFlight.remove(gameId);
+            if (error == null && accepted) scheduler.moveSubmitted(gameId);
+            else scheduler.moveFailed(gameId);
+        });
+    }
+
+    // the game from player two's side, for the engine: player two's pieces white and player two as player one
+    private static GameState swapPlayers(GameState gameState) {
+        GameState swapped = new GameState();
+        swapped.id = gameState.id;
+        swapped.numberOfMovesMade = gameState.numberOfMovesMade;
+        swapped.currentBoardState = Bitboard.swapColors(gameState.currentBoardState);
+        swapped.isPlayerOnesTurn = !gameState.isPlayerOnesTurn;
+        swapped.playerOneUsername = gameState.playerTwoUsername;
+        swapped.playerTwoUsername = gameState.playerOneUsername;
+        swapped.playerOneIsAutomated = gameState.playerTwoIsAutomated;
+        swapped.playerTwoIsAutomated = gameState.playerOneIsAutomated;
+        swapped.playerOneAiEndpoint = gameState.playerTwoAiEndpoint;
+        swapped.playerTwoAiEndpoint = gameState.playerOneAiEndpoint;
+        swapped.playerOneUnplayedPieceCount = gameState.playerTwoUnplayedPieceCount;
+        swapped.playerTwoUnplayedPieceCount = gameState.playerOneUnplayedPieceCount;
+        return swapped;
+    }
+
+    // the pondered answer when the opponent played a reply we thought about, otherwise a move from the move executor
+    private CompletableFuture<String> getNextMove(final GameState gameState) {
+        CompletableFuture<String> pondered = ponderer.takeAnswer(gameState.id, gameState.currentBoardState, gameState.playerOneUnplayedPieceCount);
+        if (pondered == null) return submitNextMove(gameState);
+        System.out.println("\tGame Id " + gameState.id + "; Answering with a pondered move");
+        return pondered.handle((nextMove, error) -> error == null ? CompletableFuture.completedFuture(nextMove) : submitNextMove(gameState)).thenCompose(f -> f);
+    }
+
+    private CompletableFuture<String> submitNextMove(GameState gameState) {
+        try {
+            return MoveHandler.submitNextMove(gameState, gameState.playerOneUnplayedPieceCount);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<String> rejected = new CompletableFuture<String>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    // completes with whether the server accepted the move
+    private CompletableFuture<Boolean> submitMove(GameState gameState, String nextMove) {
+        MoveRequest moveRequest = new MoveRequest();
+        moveRequest.gameId = gameState.id;
+        moveRequest.playerName = username;
+        moveRequest.boardState = nextMove;
+
+        return transport.postJson(server + APPLY_MOVE_ENDPOINT, moveRequest, cookieStore).handle((json, error) -> {
+            if (error == null) {
+                try {
+                    GameState moveGameState = objectMapper.readValue(json, GameState.class);
+                    System.out.println(Utils.highlightMove("    Game Id:" + gameState.id + "; Move #" + moveGameState.numberOfMovesMade, gameState.currentBoardState, moveGameState.currentBoardState, gameState.isPlayerOnesTurn));
+                    return true;
+                } catch (Exception e) {
+                    error = e;
+                }
+            }
+            Metrics.SERVER_REJECTIONS.increment();
+            log.debug(error.getMessage());
+            if (log.isDebugEnabled()) error.printStackTrace();
+            System.out.println(Utils.highlightMove("    Move Rejected By Server: Game Id:" + gameState.id, gameState.currentBoardState, nextMove, gameState.isPlayerOnesTurn));
+            return false;
+        });
+    }
+
     // Join Game State: POST request to join the first Available Open Game.  
     //      On success move to Game Playing State
     //      On failure move to Open Game State
@@ -278,7 +367,7 @@ public class ModeTwoRunner {
                 jgr.playerName = username;
                 jgr.isAutomated = true;
 
-                String json = HttpClientUtils.doPostJsonReturnJson(server + JOIN_GAME_ENDPOINT, jgr, cookieStore);
+                String json = HttpTransport.await(transport.postJson(server + JOIN_GAME_ENDPOINT, jgr, cookieStore));
                 GameState joinedGameState = objectMapper.readValue(json, GameState.class);
                 log.info("Joined game with id: " + joinedGameState);
                 return State.GamePlaying;
@@ -296,7 +385,7 @@ public class ModeTwoRunner {
         System.out.println("Entering New Game State:");
 
         try {
-            String json = HttpClientUtils.doGet(server + GAME_BOARDS_ENDPOINT, cookieStore, ContentType.APPLICATION_JSON);
+            String json = HttpTransport.await(transport.get(server + GAME_BOARDS_ENDPOINT, cookieStore));
             String[] boards = objectMapper.readValue(json, String[].class);
             String board = boards[0];
 
@@ -306,7 +395,7 @@ public class ModeTwoRunner {
             ngr.playerName = username;
             ngr.isAutomated = true;
 
-            json = HttpClientUtils.doPostJsonReturnJson(server + NEW_GAME_ENDPOINT, ngr, cookieStore);
+            json = HttpTransport.await(transport.postJson(server + NEW_GAME_ENDPOINT, ngr, cookieStore));
             GameState gameState = objectMapper.readValue(json, GameState.class);
             System.out.println("Created a new game with id: " + gameState.id + "; I'm player " + (ngr.isPlayerOne ? "1" : "2"));
             return State.GamePolling;
@@ -322,7 +411,7 @@ public class ModeTwoRunner {
     }
 
     // Open Game State: Request /api/game/myOpenGames; Set openGameCount = # of open games
-    //    If Has My Open Games: Sleep 60-120 seconds; move to Open Game State
+    //    If Has My Open Games: Sleep, backing off up to 120 seconds while nothing changes; move to Open Game State
     //    If openGameCount Decreased: One of my open games moved to the Active phase, move to Game Playing State
     //    If openGameCount == 0: Request /api/game/availableOpenGames
     //        If Has Available Open Games: Move to Join Game State 
@@ -332,12 +421,10 @@ public class ModeTwoRunner {
 
         try {
             do {
-                String json = HttpClientUtils.doGet(server + MY_OPEN_GAMES_ENDPOINT, cookieStore, ContentType.APPLICATION_JSON);
-                GameState[] games = objectMapper.readValue(json, GameState[].class);
+                ConditionalGet.Result<List<GameState>> result = conditionalGet.get(server + MY_OPEN_GAMES_ENDPOINT, this::readAutomatedGames);
 
                 myOpenGames.clear();
-                for (GameState gs : games)
-                    if (gs != null && isAutomated(gs)) myOpenGames.add(gs);
+                myOpenGames.addAll(result.value);
 
                 if (myOpenGames.size() < myOpenGameCount) {
                     myOpenGameCount = myOpenGames.size();
@@ -346,23 +433,16 @@ public class ModeTwoRunner {
                 myOpenGameCount = myOpenGames.size();
 
                 if (myOpenGames.isEmpty()) {
-                    json = HttpClientUtils.doGet(server + ALL_OPEN_GAMES_ENDPOINT, cookieStore, ContentType.APPLICATION_JSON);
-                    games = objectMapper.readValue(json, GameState[].class);
-
                     allOpenGames.clear();
-                    for (GameState gs : games)
-                        if (gs != null && !isPlayerOne(gs) && !isPlayerTwo(gs)) allOpenGames.add(gs);
+                    allOpenGames.addAll(HttpTransport.await(transport.get(server + ALL_OPEN_GAMES_ENDPOINT, cookieStore, in -> GameListReader.readNotAutomated(in, username))));
 
                     if (allOpenGames.size() < 3) return State.NewGame;
                     else return State.JoinGame;
                 }
 
-                try {
-                    synchronized (this) {
-                        System.out.println("I have " + myOpenGameCount + " open games, waiting for another player to join. Waiting for 2 minutes");
-                        this.wait(120 * 1000);
-                    }
-                } catch (InterruptedException e) {}
+                long delay = scheduler.nextOpenGamePollDelay(result.modified);
+                System.out.println("I have " + myOpenGameCount + " open games, waiting for another player to join. Waiting for " + delay / 1000 + "s");
+                scheduler.sleep(delay);
             } while (true);
         } catch (Exception e) {
             log.info("Got an error getting my open games.  Going to try logging in again.");
@@ -0,0 +1,111 @@
+package net.networkdowntime.morris;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.networkdowntime.morris.metrics.Metrics;
+
+/**
+ * Bounded pool that runs move computations.  By default one move runs per available core, the rest wait in a bounded queue.
+ *
+ * Settings (Java system properties):
+ *      morris.move.parallelism:   how many moves are computed at the same time (default: number of cores)
+ *      morris.move.queueCapacity: how many moves may wait for a free slot before new moves are rejected (default: 256)
+ *
+ * @author rwiles
+ *
+ */
+public class MoveExecutor {
+    public static final String PARALLELISM_PROPERTY = "morris.move.parallelism";
+    public static final String QUEUE_CAPACITY_PROPERTY = "morris.move.queueCapacity";
+
+    private static final int parallelism = Math.max(1, Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    private static final int queueCapacity = Math.max(1, Integer.getInteger(QUEUE_CAPACITY_PROPERTY, 256));
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS, //
+            new LinkedBlockingQueue<Runnable>(queueCapacity), new NamedThreadFactory("move-executor"));
+
+    private static final LongAdder executedCount = new LongAdder();
+    private static final LongAdder totalWaitMillis = new LongAdder();
+    private static final AtomicLong maxWaitMillis = new AtomicLong();
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the task on the move executor and waits for its result.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the queue is full
+     */
+    public static <T> T execute(Callable<T> task) throws Exception {
+        CompletableFuture<T> future = submit(task);
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Queues the task on the move executor.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the queue is full
+     */
+    public static <T> CompletableFuture<T> submit(final Callable<T> task) {
+        final long queuedAt = System.nanoTime();
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        executor.execute(() -> {
+            recordWait(System.nanoTime() - queuedAt);
+            try {
+                future.complete(task.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    public static int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /** Moves waiting for a free slot */
+    public static int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /** Moves being computed right now */
+    public static int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public static long getAverageWaitMillis() {
+        long count = executedCount.sum();
+        return count == 0 ? 0 : totalWaitMillis.sum() / count;
+    }
+
+    public static long getMaxWaitMillis() {
+        return maxWaitMillis.get();
+    }
+
+    private static void recordWait(long waitNanos) {
+        Metrics.QUEUE_WAIT.observeNanos(waitNanos);
+        long waitMillis = waitNanos / 1000000;
+        executedCount.increment();
+        totalWaitMillis.add(waitMillis);
+        long max;
+        while (waitMillis > (max = maxWaitMillis.get()) && !maxWaitMillis.compareAndSet(max, waitMillis));
+    }
+}
@@ -1,95 +1,318 @@
 package net.networkdowntime.morris;
 
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import net.networkdowntime.morris.board.LegalMovePicker;
+import net.networkdowntime.morris.book.OpeningBook;
+import net.networkdowntime.morris.cache.MoveCache;
 import net.networkdowntime.morris.dtos.GameState;
+import net.networkdowntime.morris.engine.EngineCommand;
+import net.networkdowntime.morris.engine.EngineTimeoutException;
+import net.networkdowntime.morris.engine.EngineWorkerPool;
+import net.networkdowntime.morris.engine.InProcessEngine;
+import net.networkdowntime.morris.engine.MoveEngine;
+import net.networkdowntime.morris.engine.OneShotEngine;
+import net.networkdowntime.morris.metrics.Histogram;
+import net.networkdowntime.morris.metrics.Metrics;
+import net.networkdowntime.morris.trace.TraceRecorder;
 
 public class MoveHandler {
     static final Logger log = LogManager.getLogger(MoveHandler.class);
     public static String openingCommandLine = null;
     public static String gameCommandLine = null;
+    public static OpeningBook openingBook = null;
 
-    public static synchronized String getNextMove(GameState gameState, int unplayedPieceCount) throws Exception {
-        String boardState = gameState.currentBoardState;
-        long currentTimestamp = System.currentTimeMillis();
-        String inputFileName = Constants.MOVE_INPUT_FILE + "_" + currentTimestamp + ".txt";
-        String outputFileName = Constants.MOVE_OUTPUT_FILE + "_" + currentTimestamp + ".txt";
+    private static final Histogram.Series bookMoveTime = Metrics.MOVE.labels("book");
+    private static final Histogram.Series cachedMoveTime = Metrics.MOVE.labels("cache");
+    private static final Histogram.Series engineMoveTime = Metrics.MOVE.labels("engine");
+    private static final Histogram.Series fallbackMoveTime = Metrics.MOVE.labels("fallback");
+    private static final Histogram.Series pickedMoveTime = Metrics.MOVE.labels("picked");
 
-        String gamePhase;
-        String command;
-        try {
-            if (unplayedPieceCount > 0) {
-                gamePhase = "Opening";
-                if (openingCommandLine != null) command = openingCommandLine;
-                else command = Utils.getFileAsString(Constants.OPENING_COMMAND_LINE_FILE).trim();
-            } else {
-                gamePhase = "Mid/End-Game";
-                if (gameCommandLine != null) command = gameCommandLine;
-                else command = Utils.getFileAsString(Constants.GAME_COMMAND_LINE_FILE).trim();
-            }
+    private static final ConcurrentMap<String, EngineCommand> fallbackCommands = new ConcurrentHashMap<String, EngineCommand>(); // by file
 
-            command = command.replace(Constants.MOVE_INPUT_FILE, inputFileName);
-            command = command.replace(Constants.MOVE_OUTPUT_FILE, outputFileName);
-
-            Utils.writeBoardState(inputFileName, boardState, false);
-
-            log.info("Running Command: " + command);
-            long startTime = System.currentTimeMillis();
-            Process process = Runtime.getRuntime().exec(command);
-            int exitCode = process.waitFor();
-            long totalTime = System.currentTimeMillis() - startTime;
-
-            List<String> inputLines = Utils.readInputStream(process.getInputStream());
-            List<String> errorLines = Utils.readInputStream(process.getErrorStream());
-
-            if (exitCode == 0) {
-                String nextMove = Utils.getFileAsString(outputFileName).trim();
-                if (nextMove != null && nextMove.length() == boardState.length()) {
-
-                    Utils.tryDeletingFiles(inputFileName, outputFileName);
-                    String inputBoardStateLabel = "Input Board State: ";
-                    String outputMoveLabel = gamePhase + " Output Move: ";
-                    int inputLabelLen = inputBoardStateLabel.length();
-                    int outputLabelLen = outputMoveLabel.length();
-
-                    if (inputLabelLen < outputLabelLen) inputBoardStateLabel = inputBoardStateLabel + Utils.getWhiteSpacePadding(outputLabelLen - inputLabelLen);
-                    else if (inputLabelLen > outputLabelLen) outputMoveLabel = outputMoveLabel + Utils.getWhiteSpacePadding(inputLabelLen - outputLabelLen);
-
-                    log.info(System.lineSeparator() //
-                            + "Game Id: " + gameState.id + "; move #: " + gameState.numberOfMovesMade + "; Move Execution Time: " + totalTime + System.lineSeparator() //
-                            + inputBoardStateLabel + boardState + System.lineSeparator()//
-                            + Utils.highlightMove(outputMoveLabel, boardState, nextMove, true));
-
-                    return nextMove;
-                } else {
-                    log.error("The move output file '" + outputFileName + "' did not contain a valid board state string.");
-                    if (nextMove != null) log.error("The file was empty.");
-                    if (nextMove.length() != boardState.length()) {
-                        log.error("The move was expected to be " + boardState.length() + " characters but was " + nextMove.length() + " characters.");
-                    }
-                }
-            } else {
-                log.error("Command had a non-zero exit value of: " + exitCode);
-            }
+    private static final long FALLBACK_RESERVE = 250; // milliseconds of a request's deadline kept for the fallback and the response
 
-            log.error("Standard Out from command execution was " + inputLines.size() + " lines");
-            for (String s : inputLines) {
-                log.error(s);
-            }
+    public static String getNextMove(final GameState gameState, final int unplayedPieceCount) throws Exception {
+        final long requestedAt = System.currentTimeMillis();
+        final long queuedAt = System.nanoTime();
+        String bookMove = getBookMove(gameState, unplayedPieceCount);
+        if (bookMove != null) {
+            TraceRecorder.record(gameState, unplayedPieceCount, requestedAt, 0, System.nanoTime() - queuedAt, bookMove);
+            return bookMove;
+        }
+
+        return MoveExecutor.execute(() -> computeRecordedMove(gameState, unplayedPieceCount, null, requestedAt, queuedAt, 0));
+    }
+
+    /**
+     * Queues the move on the move executor without waiting for it.
+     */
+    public static CompletableFuture<String> submitNextMove(final GameState gameState, final int unplayedPieceCount) {
+        return submitNextMove(gameState, unplayedPieceCount, 0);
+    }
+
+    /**
+     * Queues the move on the move executor without waiting for it.  A move still queued when the deadline (System.nanoTime(),
+     * 0 for none) passes fails with a TimeoutException instead of running the engine for an answer nobody waits for.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the move executor's queue is full
+     */
+    public static CompletableFuture<String> submitNextMove(final GameState gameState, final int unplayedPieceCount, final long deadline) {
+        final long requestedAt = System.currentTimeMillis();
+        final long queuedAt = System.nanoTime();
+        String bookMove = getBookMove(gameState, unplayedPieceCount);
+        if (bookMove != null) {
+            TraceRecorder.record(gameState, unplayedPieceCount, requestedAt, 0, System.nanoTime() - queuedAt, bookMove);
+            return CompletableFuture.completedFuture(bookMove);
+        }
+
+        return MoveExecutor.submit(() -> {
+            if (deadline != 0 && System.nanoTime() - deadline > 0) throw new TimeoutException("The move's deadline passed while it was queued");
+            return computeRecordedMove(gameState, unplayedPieceCount, null, requestedAt, queuedAt, deadline);
+        });
+    }
+
+    /**
+     * Queues the move on the move executor for the given command line instead of the configured ones, without the opening book,
+     * for playing engines against each other.  The fallbacks work as for the configured commands.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the move executor's queue is full
+     */
+    public static CompletableFuture<String> submitNextMove(final GameState gameState, final int unplayedPieceCount, final String commandLine) {
+        final long requestedAt = System.currentTimeMillis();
+        final long queuedAt = System.nanoTime();
+        return MoveExecutor.submit(() -> computeRecordedMove(gameState, unplayedPieceCount, commandLine, requestedAt, queuedAt, 0));
+    }
 
-            log.error("Standard Error from command execution was " + errorLines.size() + " lines");
-            for (String s : errorLines) {
-                log.error(s);
+    /**
+     * Queues the move on the move executor with the phase's command and no fallback, for building the opening book: a move the
+     * command didn't search for, from the fallback or picked without searching, mustn't be written into the book.  The opening
+     * book itself isn't asked.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the move executor's queue is full
+     */
+    public static CompletableFuture<String> submitSearchedMove(final GameState gameState, final int unplayedPieceCount) {
+        final long queuedAt = System.nanoTime();
+        return MoveExecutor.submit(() -> {
+            try {
+                long queueWaitTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedAt);
+                return runCommand(gameState, unplayedPieceCount, getGamePhase(unplayedPieceCount), getEngineCommand(null, unplayedPieceCount), engineMoveTime, queueWaitTime, 0, true);
+            } catch (Exception e) {
+                recordFailure(e);
+                throw e;
             }
+        });
+    }
+
+    // runs on the move executor, queuedAt is the System.nanoTime() the move was queued at; a null command line is the configured one
+    private static String computeRecordedMove(GameState gameState, int unplayedPieceCount, String commandLine, long requestedAt, long queuedAt, long deadline) throws Exception {
+        long startTime = System.nanoTime();
+        String nextMove = computeNextMove(gameState, unplayedPieceCount, commandLine, TimeUnit.NANOSECONDS.toMillis(startTime - queuedAt), deadline);
+        TraceRecorder.record(gameState, unplayedPieceCount, requestedAt, startTime - queuedAt, System.nanoTime() - startTime, nextMove);
+        return nextMove;
+    }
 
+    // book moves are answered on the caller's thread, they don't need a slot on the move executor
+    private static String getBookMove(GameState gameState, int unplayedPieceCount) {
+        if (openingBook == null || unplayedPieceCount <= 0) return null;
+        long startTime = System.nanoTime();
+        String bookMove = openingBook.lookup(gameState.currentBoardState);
+        if (bookMove != null) {
+            long elapsed = System.nanoTime() - startTime;
+            bookMoveTime.observeNanos(elapsed);
+            logMove(gameState, "Opening Book", gameState.currentBoardState, bookMove, elapsed / 1000000, 0);
+        }
+        return bookMove;
+    }
+
+    /**
+     * Asks the phase's command for a move within its time budget.  When it fails or runs out of time the command's @fallback command
+     * is asked, and when that fails too a legal move is picked without searching.
+     */
+    private static String computeNextMove(GameState gameState, int unplayedPieceCount, String commandLine, long queueWaitTime, long deadline) throws Exception {
+        String gamePhase = getGamePhase(unplayedPieceCount);
+        EngineCommand engineCommand = null;
+        try {
+            engineCommand = getEngineCommand(commandLine, unplayedPieceCount);
+            return runCommand(gameState, unplayedPieceCount, gamePhase, engineCommand, engineMoveTime, queueWaitTime, deadline, true);
         } catch (Exception e) {
+            recordFailure(e);
+        }
+
+        if (engineCommand != null && engineCommand.getFallback() != null) {
+            try {
+                EngineCommand fallbackCommand = getFallbackCommand(engineCommand);
+                return runCommand(gameState, unplayedPieceCount, gamePhase + " Fallback", fallbackCommand, fallbackMoveTime, queueWaitTime, deadline, true);
+            } catch (Exception e) {
+                recordFailure(e);
+            }
+        }
+
+        long startTime = System.nanoTime();
+        String pickedMove = LegalMovePicker.pick(gameState.currentBoardState, unplayedPieceCount);
+        if (pickedMove != null) {
+            long elapsed = System.nanoTime() - startTime;
+            pickedMoveTime.observeNanos(elapsed);
+            logMove(gameState, gamePhase + " Picked", gameState.currentBoardState, pickedMove, elapsed / 1000000, queueWaitTime);
+            return pickedMove;
+        }
+
+        throw new Exception("Unable to get the next move");
+    }
+
+    /**
+     * Computes the move on the calling thread with the phase's command and no fallback, for speculative work that shouldn't take
+     * move executor slots from real moves or settle for a weaker move.  A ladder isn't raced for it, a pondering thread isn't
+     * counted against the cores the ladder's rungs are given.
+     */
+    public static String ponderNextMove(GameState gameState, int unplayedPieceCount) throws Exception {
+        String bookMove = getBookMove(gameState, unplayedPieceCount);
+        if (bookMove != null) return bookMove;
+        return runCommand(gameState, unplayedPieceCount, getGamePhase(unplayedPieceCount), getEngineCommand(null, unplayedPieceCount), engineMoveTime, 0, 0, false);
+    }
+
+    /**
+     * The command's @fallback command, read the first time it's needed and kept, so a move that's already out of time doesn't
+     * wait on the disk.
+     */
+    private static EngineCommand getFallbackCommand(EngineCommand engineCommand) throws Exception {
+        EngineCommand fallbackCommand = fallbackCommands.get(engineCommand.getFallback());
+        if (fallbackCommand != null) return fallbackCommand;
+
+        fallbackCommand = EngineCommand.parse(Utils.getFileAsString(engineCommand.getFallback()).trim());
+        EngineCommand known = fallbackCommands.putIfAbsent(engineCommand.getFallback(), fallbackCommand);
+        return known != null ? known : fallbackCommand;
+    }
+
+    private static String getGamePhase(int unplayedPieceCount) {
+        return unplayedPieceCount > 0 ? "Opening" : "Mid/End-Game";
+    }
+
+    private static EngineCommand getEngineCommand(String commandLine, int unplayedPieceCount) throws Exception {
+        String command;
+        if (commandLine != null) {
+            command = commandLine;
+        } else if (unplayedPieceCount > 0) {
+            if (openingCommandLine != null) command = openingCommandLine;
+            else command = Utils.getFileAsString(Constants.OPENING_COMMAND_LINE_FILE).trim();
+        } else {
+            if (gameCommandLine != null) command = gameCommandLine;
+            else command = Utils.getFileAsString(Constants.GAME_COMMAND_LINE_FILE).trim();
+        }
+        return EngineCommand.parse(command);
+    }
+
+    private static String runCommand(GameState gameState, int unplayedPieceCount, String gamePhase, EngineCommand engineCommand, Histogram.Series moveTime, long queueWaitTime, long deadline, boolean raceLadder) throws Exception {
+        String boardState = gameState.currentBoardState;
+        List<EngineCommand> rungs = DepthLadder.getRungs(engineCommand);
+        // a ladder's moves are cached for its deepest rung, so a move a shallower rung answered is raced for again
+        String cacheKey = rungs.get(rungs.size() - 1).getCommandLine();
+        boolean useCache = engineCommand.usesCache() && MoveCache.isEnabled();
+        long startTime = System.nanoTime();
+        String nextMove = useCache ? MoveCache.get(gamePhase, cacheKey, boardState) : null;
+        if (nextMove != null) {
+            long elapsed = System.nanoTime() - startTime;
+            cachedMoveTime.observeNanos(elapsed);
+            logMove(gameState, gamePhase + " Cached", boardState, nextMove, elapsed / 1000000, queueWaitTime);
+            return nextMove;
+        }
+
+        long budget = getBudget(engineCommand, deadline);
+        final MoveEngine.Phase phase = unplayedPieceCount > 0 ? MoveEngine.Phase.OPENING : MoveEngine.Phase.MID_END_GAME;
+        boolean deepest = rungs.size() == 1;
+        String source = gamePhase;
+        if (raceLadder && rungs.size() > 1 && DepthLadder.reserveCores(rungs.size() - 1)) {
+            DepthLadder.Win win = DepthLadder.race(gamePhase, rungs, budget, (rung, rungBudget) -> runEngine(rung, boardState, phase, rungBudget));
+            nextMove = win.move;
+            deepest = win.rung == rungs.size() - 1;
+            source = gamePhase + " Rung " + (win.rung + 1) + "/" + rungs.size();
+        } else {
+            nextMove = runEngine(engineCommand, boardState, phase, budget);
+        }
+        long elapsed = System.nanoTime() - startTime;
+        moveTime.observeNanos(elapsed);
+        long totalTime = elapsed / 1000000;
+
+        if (useCache && deepest) MoveCache.put(gamePhase, cacheKey, boardState, nextMove);
+        logMove(gameState, source, boardState, nextMove, totalTime, queueWaitTime);
+        return nextMove;
+    }
+
+    private static String runEngine(EngineCommand engineCommand, String boardState, MoveEngine.Phase phase, long budget) throws Exception {
+        if (engineCommand.usesInProcessEngine()) {
+            log.info("Running In-Process Engine: " + engineCommand.getCommandLine());
+            return InProcessEngine.nextMove(engineCommand, boardState, phase, budget);
+        } else if (engineCommand.usesWorkerPool()) {
+            log.info("Running Command on Engine Worker: " + engineCommand.getCommandLine());
+            return EngineWorkerPool.forCommand(engineCommand).nextMove(boardState, budget);
+        } else {
+            return OneShotEngine.nextMove(engineCommand, boardState, budget);
+        }
+    }
+
+    // the command's own budget, cut short so a request with a deadline still gets its fallback move in time
+    private static long getBudget(EngineCommand engineCommand, long deadline) {
+        long budget = engineCommand.getTimeout();
+        if (deadline == 0) return budget;
+        long remaining = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) - FALLBACK_RESERVE);
+        return budget > 0 ? Math.min(budget, remaining) : remaining;
+    }
+
+    private static void recordFailure(Exception e) {
+        Metrics.ENGINE_FAILURES.increment();
+        if (e instanceof EngineTimeoutException) {
+            Metrics.ENGINE_TIMEOUTS.increment();
+            log.warn(e.getMessage());
+        } else {
             log.error("Error processing move request:");
             log.error(e);
         }
+    }
 
-        throw new Exception("Unable to get the next move");
+    /**
+     * Starts the long-lived engine processes of any command lines configured with a worker pool and loads in-process engines.
+     */
+    public static void startEngineWorkers() throws Exception {
+        startEngineWorkers(openingCommandLine, gameCommandLine);
+    }
+
+    /**
+     * Starts the long-lived engine processes of the command lines configured with a worker pool and loads in-process engines,
+     * the rungs of the command lines' ladders included.
+     */
+    public static void startEngineWorkers(String... commandLines) throws Exception {
+        for (String commandLine : commandLines) {
+            if (commandLine == null) continue;
+            for (EngineCommand engineCommand : DepthLadder.getRungs(EngineCommand.parse(commandLine))) {
+                if (engineCommand.usesInProcessEngine()) InProcessEngine.preload(engineCommand);
+                else if (engineCommand.usesWorkerPool()) EngineWorkerPool.forCommand(engineCommand).prestart();
+            }
+        }
+    }
+
+    private static void logMove(GameState gameState, String gamePhase, String boardState, String nextMove, long totalTime, long queueWaitTime) {
+        if (!log.isInfoEnabled()) return;
+        String inputBoardStateLabel = "Input Board State: ";
+        String outputMoveLabel = gamePhase + " Output Move: ";
+        int inputLabelLen = inputBoardStateLabel.length();
+        int outputLabelLen = outputMoveLabel.length();
+
+        if (inputLabelLen < outputLabelLen) inputBoardStateLabel = inputBoardStateLabel + Utils.getWhiteSpacePadding(outputLabelLen - inputLabelLen);
+        else if (inputLabelLen > outputLabelLen) outputMoveLabel = outputMoveLabel + Utils.getWhiteSpacePadding(inputLabelLen - outputLabelLen);
+
+        log.info(System.lineSeparator() //
+                + "Game Id: " + gameState.id + "; move #: " + gameState.numberOfMovesMade + "; Move Execution Time: " + totalTime //
+                + "; Queue Wait Time: " + queueWaitTime + "; Queue Depth: " + MoveExecutor.getQueueDepth() //
+                + "; Cache Hits/Misses: " + MoveCache.getHitCount() + "/" + MoveCache.getMissCount() + System.lineSeparator() //
+                + inputBoardStateLabel + boardState + System.lineSeparator()//
+                + Utils.highlightMove(outputMoveLabel, boardState, nextMove, true));
     }
 }
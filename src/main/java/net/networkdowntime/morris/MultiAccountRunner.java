@@ -0,0 +1,120 @@
+package net.networkdowntime.morris;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs Mode 2 for many accounts in one process.  Every account is its own state machine on its own thread, they share the HTTP
+ * connection pool, the JSON mapper and the move executor.  On Java 21 and later each account runs on a virtual thread, so
+ * accounts that are waiting on their opponents cost next to nothing.
+ *
+ * The accounts file has one account per line: USERNAME PASSWORD.  Blank lines and lines starting with # are skipped.
+ *
+ * Settings (Java system properties):
+ *      morris.accounts.virtualThreads: false runs accounts on platform threads even where virtual threads exist (default: true)
+ *      morris.accounts.startInterval:  milliseconds between starting accounts, so they don't all log in at once (default: 100)
+ *
+ * @author rwiles
+ *
+ */
+public class MultiAccountRunner implements Runnable {
+    static final Logger log = LogManager.getLogger(MultiAccountRunner.class);
+
+    public static final String VIRTUAL_THREADS_PROPERTY = "morris.accounts.virtualThreads";
+    public static final String START_INTERVAL_PROPERTY = "morris.accounts.startInterval";
+
+    private static final long RESTART_DELAY = 10 * 1000;
+
+    private final List<String[]> accounts;
+    private final String server;
+
+    public MultiAccountRunner(List<String[]> accounts, String server) {
+        this.accounts = accounts;
+        this.server = server;
+    }
+
+    public static MultiAccountRunner load(File accountsFile, String server) throws IOException {
+        List<String[]> accounts = new ArrayList<String[]>();
+        Set<String> usernames = new HashSet<String>();
+
+        int lineNumber = 0;
+        for (String line : Utils.getFileAsString(accountsFile.getPath()).split("\\r?\\n")) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            String[] account = line.split("\\s+");
+            if (account.length != 2) throw new IllegalArgumentException("line " + lineNumber + " should be USERNAME PASSWORD");
+            if (!usernames.add(account[0])) throw new IllegalArgumentException("line " + lineNumber + " repeats the account " + account[0]);
+            accounts.add(account);
+        }
+        if (accounts.isEmpty()) throw new IllegalArgumentException("no accounts listed");
+        return new MultiAccountRunner(accounts, server);
+    }
+
+    public int getAccountCount() {
+        return accounts.size();
+    }
+
+    /**
+     * Plays as every account until the process ends.
+     */
+    @Override
+    public void run() {
+        ExecutorService executor = newAccountExecutor();
+        long startInterval = Long.getLong(START_INTERVAL_PROPERTY, 100);
+
+        for (final String[] account : accounts) {
+            executor.execute(() -> runAccount(account[0], account[1]));
+            if (startInterval > 0) {
+                try {
+                    Thread.sleep(startInterval);
+                } catch (InterruptedException e) {}
+            }
+        }
+        System.out.println("Started " + accounts.size() + " accounts against " + server);
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {}
+    }
+
+    private void runAccount(String username, String password) {
+        Thread.currentThread().setName("account-" + username);
+        do {
+            try {
+                new ModeTwoRunner(username, password, server).run();
+            } catch (Throwable t) {
+                log.error("Account " + username + " stopped, restarting it in " + RESTART_DELAY / 1000 + "s", t);
+            }
+            try {
+                Thread.sleep(RESTART_DELAY);
+            } catch (InterruptedException e) {}
+        } while (true);
+    }
+
+    private ExecutorService newAccountExecutor() {
+        if (Boolean.parseBoolean(System.getProperty(VIRTUAL_THREADS_PROPERTY, "true"))) {
+            try {
+                // Java 21+, looked up at runtime so the wrapper still runs on older JVMs
+                ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                log.info("Running accounts on virtual threads");
+                return executor;
+            } catch (ReflectiveOperationException e) {
+                log.debug("Virtual threads aren't available, running accounts on platform threads");
+            }
+        }
+        return Executors.newCachedThreadPool(new NamedThreadFactory("account"));
+    }
+}
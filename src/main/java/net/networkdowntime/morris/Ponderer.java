@@ -0,0 +1,213 @@
+package net.networkdowntime.morris;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.networkdowntime.morris.board.Bitboard;
+import net.networkdowntime.morris.board.BoardLayout;
+import net.networkdowntime.morris.board.MoveGenerator;
+import net.networkdowntime.morris.dtos.GameState;
+import net.networkdowntime.morris.metrics.Metrics;
+
+/**
+ * Thinks ahead while Mode 2 waits on an opponent.  Once our move is accepted the opponent's likeliest replies are worked out and
+ * our answer to each one is computed in the background.  When the opponent plays one of them the answer is posted without running
+ * the engine, and everything else pondered for the game is cancelled, as is everything pondered for a game that ended.
+ *
+ * Replies that take one of our pieces are pondered first, then replies that block one of our mills, then the rest.  Pondering
+ * needs the board layout for the board state's length and runs on its own threads, so it never takes move executor slots from
+ * real moves.
+ *
+ * Settings (Java system properties):
+ *      morris.ponder.enabled:      true ponders while waiting on the opponent (default: false)
+ *      morris.ponder.maxPositions: how many of the opponent's replies are pondered after each of our moves (default: 8)
+ *      morris.ponder.threads:      how many replies are pondered at the same time across all games and accounts (default: 1)
+ *
+ * @author rwiles
+ *
+ */
+public class Ponderer {
+    static final Logger log = LogManager.getLogger(Ponderer.class);
+
+    public static final String ENABLED_PROPERTY = "morris.ponder.enabled";
+    public static final String MAX_POSITIONS_PROPERTY = "morris.ponder.maxPositions";
+    public static final String THREADS_PROPERTY = "morris.ponder.threads";
+
+    private static final boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+    private static final int maxPositions = Math.max(1, Integer.getInteger(MAX_POSITIONS_PROPERTY, 8));
+    private static final int threads = Math.max(1, Integer.getInteger(THREADS_PROPERTY, 1));
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, //
+            new LinkedBlockingQueue<Runnable>(256), new NamedThreadFactory("ponder"));
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private final Map<Long, Pondering> games = new ConcurrentHashMap<Long, Pondering>();
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts pondering the opponent's replies to our move, dropping whatever was pondered for the game before.
+     *
+     * @param gameState the game as the engine saw it for our move, we are white and player one
+     * @param ourMove the board state after our move
+     */
+    public void ponder(GameState gameState, String ourMove) {
+        if (!enabled) return;
+        long gameId = gameState.id;
+        cancel(games.remove(gameId));
+
+        BoardLayout layout = BoardLayout.forBoardLength(ourMove.length());
+        if (layout == null) return;
+
+        int ourUnplayed = Math.max(0, gameState.playerOneUnplayedPieceCount - 1);
+        int opponentUnplayed = gameState.playerTwoUnplayedPieceCount;
+        Pondering pondering = new Pondering(ourUnplayed);
+
+        for (String reply : getLikelyReplies(layout, ourMove, opponentUnplayed)) {
+            final GameState position = new GameState();
+            position.id = gameState.id;
+            position.numberOfMovesMade = gameState.numberOfMovesMade;
+            position.currentBoardState = reply;
+            position.isPlayerOnesTurn = true;
+            position.playerOneUnplayedPieceCount = ourUnplayed;
+            position.playerTwoUnplayedPieceCount = Math.max(0, opponentUnplayed - 1);
+
+            PonderTask task = new PonderTask(() -> MoveHandler.ponderNextMove(position, ourUnplayed));
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                log.debug("Too much pondering queued, skipping the rest of game id " + gameId);
+                break;
+            }
+            pondering.tasks.put(reply, task);
+        }
+        games.put(gameId, pondering);
+    }
+
+    /**
+     * The pondered answer to the opponent's move, or null if it wasn't pondered.  Either way the game has moved on, so everything
+     * else pondered for it is cancelled.
+     */
+    public CompletableFuture<String> takeAnswer(long gameId, String boardState, int unplayedPieceCount) {
+        Pondering pondering = games.remove(gameId);
+        if (pondering == null) return null;
+
+        PonderTask task = pondering.ourUnplayed == unplayedPieceCount ? pondering.tasks.remove(boardState) : null;
+        cancel(pondering);
+        if (task == null) {
+            Metrics.PONDER_MISSES.increment();
+            return null;
+        }
+        Metrics.PONDER_HITS.increment();
+        return task.answer;
+    }
+
+    /**
+     * Cancels what was pondered for games that are no longer active, the active games being every game the account plays
+     * through this wrapper, whoever's turn it is.
+     */
+    public void retainGames(Collection<Long> activeGameIds) {
+        for (Iterator<Map.Entry<Long, Pondering>> it = games.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Long, Pondering> entry = it.next();
+            if (activeGameIds.contains(entry.getKey())) continue;
+            it.remove();
+            cancel(entry.getValue());
+        }
+    }
+
+    // captures first, then replies that block one of our mills, then the rest
+    private static List<String> getLikelyReplies(BoardLayout layout, String ourMove, int opponentUnplayed) {
+        Bitboard before = Bitboard.tryParse(ourMove);
+        if (before == null) return new ArrayList<String>();
+
+        List<Bitboard> replies;
+        if (opponentUnplayed > 0) replies = MoveGenerator.getPlacements(layout, before, Constants.BLACK, Constants.WHITE);
+        else replies = MoveGenerator.getSlides(layout, before, Constants.BLACK, Constants.WHITE);
+
+        int ourPieces = before.countPieces(Constants.WHITE);
+        List<String> captures = new ArrayList<String>();
+        List<String> blocks = new ArrayList<String>();
+        List<String> others = new ArrayList<String>();
+        for (Bitboard reply : replies) {
+            if (reply.countPieces(Constants.WHITE) < ourPieces) captures.add(reply.toString());
+            else if (blocksMill(layout, before, reply)) blocks.add(reply.toString());
+            else others.add(reply.toString());
+        }
+
+        List<String> likely = new ArrayList<String>(captures);
+        likely.addAll(blocks);
+        likely.addAll(others);
+        return likely.subList(0, Math.min(maxPositions, likely.size()));
+    }
+
+    // the reply put a piece where we had the other two pieces of a mill
+    private static boolean blocksMill(BoardLayout layout, Bitboard before, Bitboard after) {
+        long placed = after.getBlack() & ~before.getBlack();
+        for (long mill : layout.getMills()) {
+            if ((mill & placed) == 0) continue;
+            long rest = mill & ~placed;
+            if ((before.getWhite() & rest) == rest) return true;
+        }
+        return false;
+    }
+
+    private static void cancel(Pondering pondering) {
+        if (pondering == null) return;
+        for (PonderTask task : pondering.tasks.values())
+            task.cancel(true); // interrupting a running engine kills it
+        executor.purge();
+    }
+
+    private static class Pondering {
+        final int ourUnplayed;
+        final Map<String, PonderTask> tasks = new HashMap<String, PonderTask>(); // by the opponent's reply
+
+        Pondering(int ourUnplayed) {
+            this.ourUnplayed = ourUnplayed;
+        }
+    }
+
+    // can be interrupted like any FutureTask and completes a CompletableFuture for whoever takes the answer
+    private static class PonderTask extends FutureTask<String> {
+        final CompletableFuture<String> answer = new CompletableFuture<String>();
+
+        PonderTask(Callable<String> callable) {
+            super(callable);
+        }
+
+        @Override
+        protected void done() {
+            try {
+                answer.complete(get());
+            } catch (CancellationException e) {
+                answer.cancel(false);
+            } catch (ExecutionException e) {
+                answer.completeExceptionally(e.getCause());
+            } catch (InterruptedException e) {
+                answer.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -1,33 +1,266 @@
 package net.networkdowntime.morris.api;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
+import net.networkdowntime.morris.Constants;
 import net.networkdowntime.morris.MoveHandler;
+import net.networkdowntime.morris.NamedThreadFactory;
+import net.networkdowntime.morris.dispatch.Dispatcher;
 import net.networkdowntime.morris.dtos.GameState;
+import net.networkdowntime.morris.http.HttpTransport;
+import net.networkdowntime.morris.metrics.Metrics;
+import net.networkdowntime.morris.scheduling.TimerWheel;
 
+/**
+ * Mode 1 move requests.  The move is computed on the move executor and the container thread is released while it runs.  Every
+ * request has a deadline: the X-Move-Timeout header in milliseconds, or morris.move.timeout.  A request that can't be queued
+ * because the move queue is full, or that isn't answered by its deadline, gets a 503 with a Retry-After header.
+ *
+ * processMoves takes an array of games and streams their moves back as newline delimited JSON as each one completes.
+ *
+ * With morris.dispatch.workers set the moves are forwarded to the worker wrappers instead of being computed here, see Dispatcher.
+ *
+ * Settings (Java system properties):
+ *      morris.move.timeout:    milliseconds a move request may take when it doesn't send X-Move-Timeout (default: 60000)
+ *      morris.move.retryAfter: seconds sent in Retry-After when a request is turned away (default: 1)
+ *
+ * @author rwiles
+ *
+ */
 @RestController
 @RequestMapping("api/clientWrapper")
 public class ClientController {
     static final Logger log = LogManager.getLogger(ClientController.class);
 
+    public static final String TIMEOUT_PROPERTY = "morris.move.timeout";
+    public static final String RETRY_AFTER_PROPERTY = "morris.move.retryAfter";
+
+    private static final long defaultTimeout = Long.getLong(TIMEOUT_PROPERTY, 60 * 1000);
+    private static final long retryAfter = Long.getLong(RETRY_AFTER_PROPERTY, 1);
+
+    static final String NDJSON = "application/x-ndjson;charset=UTF-8";
+    private static final long BATCH_TIMEOUT_MARGIN = 5000;
+
+    // batch lines are written here, off the move executor and the timer thread, so a client slow to read holds up only its own batch
+    private static final ExecutorService batchWriter = Executors.newCachedThreadPool(new NamedThreadFactory("batch-writer"));
+
     @RequestMapping(value = "/processMove", //
             method = RequestMethod.POST, //
             consumes = { "application/json;charset=UTF-8" }, //
             produces = { "text/plain;charset=UTF-8" })
-    public ResponseEntity<String> applyMove(@RequestBody GameState gameState) {
+    public DeferredResult<ResponseEntity<String>> applyMove(@RequestBody GameState gameState, @RequestHeader(value = Constants.MOVE_TIMEOUT_HEADER, required = false) Long timeoutHeader) {
+        long timeout = (timeoutHeader != null && timeoutHeader > 0) ? timeoutHeader : defaultTimeout;
+        final DeferredResult<ResponseEntity<String>> result = new DeferredResult<ResponseEntity<String>>(timeout);
+
+        final CompletableFuture<String> move;
+        try {
+            move = submitNextMove(gameState, System.nanoTime() + timeout * 1000000);
+        } catch (RejectedExecutionException e) {
+            Metrics.REQUESTS_SHED.increment();
+            log.warn("Turning away the move for game id " + gameState.id + ": " + turnedAwayReason(e));
+            result.setResult(unavailable());
+            return result;
+        }
+
+        result.onTimeout(() -> {
+            Metrics.DEADLINE_EXCEEDED.increment();
+            log.warn("The move for game id " + gameState.id + " wasn't ready within " + timeout + "ms");
+            move.cancel(false);
+            result.setErrorResult(unavailable());
+        });
+        move.whenComplete((nextMove, error) -> {
+            if (error == null) result.setResult(new ResponseEntity<String>(nextMove, HttpStatus.OK));
+            else if (isUnavailable(error)) result.setResult(unavailable());
+            else if (getWorkerStatus(error) != null) result.setResult(new ResponseEntity<String>(getWorkerStatus(error)));
+            else result.setResult(new ResponseEntity<String>(HttpStatus.INTERNAL_SERVER_ERROR));
+        });
+        return result;
+    }
+
+    /**
+     * Moves for a batch of games, fanned out to the move executor together and written back as they complete, one JSON object
+     * per line: the game's index in the batch, its id and either its move or the status a single request would have got and an
+     * error.  A slow game only holds up its own line, the batch's deadline answers whatever is still running with a 503.
+     */
+    @RequestMapping(value = "/processMoves", //
+            method = RequestMethod.POST, //
+            consumes = { "application/json;charset=UTF-8" }, //
+            produces = { NDJSON })
+    public ResponseBodyEmitter applyMoves(@RequestBody List<GameState> gameStates, @RequestHeader(value = Constants.MOVE_TIMEOUT_HEADER, required = false) Long timeoutHeader) {
+        final long timeout = (timeoutHeader != null && timeoutHeader > 0) ? timeoutHeader : defaultTimeout;
+        final long deadline = System.nanoTime() + timeout * 1000000;
+        // the container's timeout is only a backstop, the batch's own deadline answers the games still running
+        final ResponseBodyEmitter emitter = new NdjsonEmitter(timeout + BATCH_TIMEOUT_MARGIN);
+        final BatchResponse response = new BatchResponse(emitter, gameStates.size());
+
+        for (int i = 0; i < gameStates.size(); i++) {
+            final int index = i;
+            final GameState gameState = gameStates.get(i);
+            final CompletableFuture<String> move;
+            try {
+                move = submitNextMove(gameState, deadline);
+            } catch (RejectedExecutionException e) {
+                Metrics.REQUESTS_SHED.increment();
+                log.warn("Turning away the move for game id " + gameState.id + ": " + turnedAwayReason(e));
+                response.answer(index, gameState, null, HttpStatus.SERVICE_UNAVAILABLE, turnedAwayReason(e));
+                continue;
+            }
+
+            response.track(index, move);
+            move.whenCompleteAsync((nextMove, error) -> {
+                if (error == null) response.answer(index, gameState, nextMove, HttpStatus.OK, null);
+                else if (isUnavailable(error)) response.answer(index, gameState, null, HttpStatus.SERVICE_UNAVAILABLE, error.getMessage());
+                else if (getWorkerStatus(error) != null) response.answer(index, gameState, null, getWorkerStatus(error), "The worker turned the move away");
+                else response.answer(index, gameState, null, HttpStatus.INTERNAL_SERVER_ERROR, "Unable to get the next move");
+            }, batchWriter);
+        }
+
+        final TimerWheel.Timeout batchTimeout = TimerWheel.shared().schedule(() -> batchWriter.execute(() -> {
+            for (int i = 0; i < gameStates.size(); i++) {
+                if (response.answer(i, gameStates.get(i), null, HttpStatus.SERVICE_UNAVAILABLE, "The move wasn't ready within " + timeout + "ms")) {
+                    Metrics.DEADLINE_EXCEEDED.increment();
+                    log.warn("The move for game id " + gameStates.get(i).id + " wasn't ready within " + timeout + "ms");
+                }
+            }
+        }), timeout);
+        emitter.onCompletion(batchTimeout::cancel);
+        return emitter;
+    }
+
+    /**
+     * For a dispatcher's health checks: answers while the wrapper takes move requests.
+     */
+    @RequestMapping(value = "/health", //
+            method = RequestMethod.GET, //
+            produces = { "text/plain;charset=UTF-8" })
+    public String health() {
+        return "OK";
+    }
+
+    // computed here, or forwarded to a worker when this wrapper is a dispatcher
+    private static CompletableFuture<String> submitNextMove(GameState gameState, long deadline) {
+        if (Dispatcher.isEnabled()) return Dispatcher.submitNextMove(gameState, deadline);
+        return MoveHandler.submitNextMove(gameState, gameState.playerOneUnplayedPieceCount, deadline);
+    }
+
+    private static String turnedAwayReason(RejectedExecutionException e) {
+        return Dispatcher.isEnabled() ? e.getMessage() : "The move queue is full";
+    }
+
+    // ran out of time or turned away, answered with 503 like a full move queue
+    private static boolean isUnavailable(Throwable error) {
+        Throwable cause = error.getCause() != null ? error.getCause() : error;
+        return cause instanceof TimeoutException || cause instanceof RejectedExecutionException;
+    }
+
+    // a dispatcher's worker turned the game state away with a 4xx, passed on as it was
+    private static HttpStatus getWorkerStatus(Throwable error) {
+        Throwable cause = error.getCause() != null ? error.getCause() : error;
+        if (!(cause instanceof HttpTransport.HttpError)) return null;
         try {
-            String nextMove = MoveHandler.getNextMove(gameState, gameState.playerOneUnplayedPieceCount);
-            return new ResponseEntity<String>(nextMove, HttpStatus.OK);
-        } catch (Exception e) {
-            return new ResponseEntity<String>(HttpStatus.INTERNAL_SERVER_ERROR);
+            return HttpStatus.valueOf(((HttpTransport.HttpError) cause).getStatus());
+        } catch (IllegalArgumentException e) {
+            return HttpStatus.BAD_REQUEST;
         }
     }
 
-}
\ No newline at end of file
+    private static ResponseEntity<String> unavailable() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter));
+        return new ResponseEntity<String>(headers, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    // the response is committed before the first line is sent, so its content type is set up front
+    private static class NdjsonEmitter extends ResponseBodyEmitter {
+        NdjsonEmitter(long timeout) {
+            super(timeout);
+        }
+
+        @Override
+        protected void extendResponse(ServerHttpResponse outputMessage) {
+            super.extendResponse(outputMessage);
+            outputMessage.getHeaders().setContentType(BatchResponse.NDJSON_TYPE);
+        }
+    }
+
+    // writes one line per game of a batch, the first answer for a game wins
+    private static class BatchResponse {
+        private static final ObjectMapper objectMapper = new ObjectMapper();
+        private static final MediaType NDJSON_TYPE = MediaType.parseMediaType(NDJSON);
+
+        private final ResponseBodyEmitter emitter;
+        private final AtomicBoolean[] answered;
+        private final CompletableFuture<?>[] moves;
+        private int remaining;
+
+        BatchResponse(ResponseBodyEmitter emitter, int size) {
+            this.emitter = emitter;
+            this.answered = new AtomicBoolean[size];
+            for (int i = 0; i < size; i++)
+                answered[i] = new AtomicBoolean();
+            this.moves = new CompletableFuture<?>[size];
+            this.remaining = size;
+            if (size == 0) emitter.complete();
+        }
+
+        synchronized void track(int index, CompletableFuture<?> move) {
+            moves[index] = move;
+        }
+
+        /**
+         * Writes the game's line unless it was already answered, true if it wasn't.
+         */
+        boolean answer(int index, GameState gameState, String move, HttpStatus status, String error) {
+            if (!answered[index].compareAndSet(false, true)) return false;
+
+            Map<String, Object> line = new LinkedHashMap<String, Object>();
+            line.put("index", index);
+            line.put("id", gameState.id);
+            line.put("status", status.value());
+            if (move != null) line.put("move", move);
+            if (error != null) line.put("error", error);
+
+            synchronized (this) {
+                if (moves[index] != null && status != HttpStatus.OK) moves[index].cancel(false);
+                try {
+                    emitter.send(objectMapper.writeValueAsString(line) + "\n", NDJSON_TYPE);
+                    if (--remaining == 0) emitter.complete();
+                } catch (IOException e) {
+                    log.warn("Unable to write the move for game id " + gameState.id + ", the client went away: " + e.getMessage());
+                    for (CompletableFuture<?> pending : moves)
+                        if (pending != null) pending.cancel(false);
+                    for (AtomicBoolean done : answered)
+                        done.set(true);
+                    emitter.completeWithError(e);
+                }
+            }
+            return true;
+        }
+    }
+}
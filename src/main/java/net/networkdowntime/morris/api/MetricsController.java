@@ -0,0 +1,22 @@
+package net.networkdowntime.morris.api;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import net.networkdowntime.morris.metrics.Metrics;
+
+@RestController
+public class MetricsController {
+
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET)
+    public ResponseEntity<String> metrics() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_TYPE, Metrics.CONTENT_TYPE);
+        return new ResponseEntity<String>(Metrics.scrape(), headers, HttpStatus.OK);
+    }
+
+}
@@ -0,0 +1,212 @@
+package net.networkdowntime.morris.board;
+
+import net.networkdowntime.morris.Constants;
+
+/**
+ * A board state packed into one bit mask per colour, bit i standing for position i of the board state string.  Swapping colours,
+ * finding what a move changed, counting pieces and checking mills are bit operations; the string is only built where a board
+ * state leaves the wrapper.
+ *
+ * A board state fits when it has at most 64 positions and every position that holds neither colour holds the same empty
+ * character.  The empty character is kept, so the string comes back exactly as it was parsed.
+ *
+ * @author rwiles
+ *
+ */
+public final class Bitboard {
+    public static final int MAX_POSITIONS = 64;
+
+    private final long white;
+    private final long black;
+    private final int length;
+    private final char empty;
+
+    private Bitboard(long white, long black, int length, char empty) {
+        this.white = white;
+        this.black = black;
+        this.length = length;
+        this.empty = empty;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the board state doesn't fit
+     */
+    public static Bitboard parse(String boardState) {
+        Bitboard board = tryParse(boardState);
+        if (board == null) throw new IllegalArgumentException("Board state '" + boardState + "' doesn't fit a bitboard");
+        return board;
+    }
+
+    /**
+     * The bitboard for the board state, or null if it doesn't fit.
+     */
+    public static Bitboard tryParse(String boardState) {
+        int length = boardState.length();
+        if (length > MAX_POSITIONS) return null;
+
+        long white = 0;
+        long black = 0;
+        char empty = 0;
+        for (int i = 0; i < length; i++) {
+            char c = boardState.charAt(i);
+            if (c == Constants.WHITE) white |= 1L << i;
+            else if (c == Constants.BLACK) black |= 1L << i;
+            else if (empty == 0) empty = c;
+            else if (c != empty) return null;
+        }
+        return new Bitboard(white, black, length, empty == 0 ? Constants.EMPTY : empty);
+    }
+
+    /**
+     * A board of the same length and empty character holding the given pieces.
+     */
+    public Bitboard withPieces(long white, long black) {
+        return new Bitboard(white, black, length, empty);
+    }
+
+    /**
+     * Swaps white and black, one board state for the other player.  Done on the characters, parsing into a bitboard first would
+     * only cost more.
+     */
+    public static String swapColors(String boardState) {
+        char[] result = boardState.toCharArray();
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] == Constants.WHITE) result[i] = Constants.BLACK;
+            else if (result[i] == Constants.BLACK) result[i] = Constants.WHITE;
+        }
+        return new String(result);
+    }
+
+    public long getWhite() {
+        return white;
+    }
+
+    public long getBlack() {
+        return black;
+    }
+
+    /**
+     * The positions holding the player's pieces, the player is Constants.WHITE or Constants.BLACK.
+     */
+    public long getPieces(char player) {
+        if (player == Constants.WHITE) return white;
+        if (player == Constants.BLACK) return black;
+        throw new IllegalArgumentException("'" + player + "' isn't a player");
+    }
+
+    public long getEmpty() {
+        return getAllPositions() & ~(white | black);
+    }
+
+    public long getAllPositions() {
+        return length == MAX_POSITIONS ? -1L : (1L << length) - 1;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char getEmptyChar() {
+        return empty;
+    }
+
+    public char charAt(int position) {
+        long bit = 1L << position;
+        if ((white & bit) != 0) return Constants.WHITE;
+        if ((black & bit) != 0) return Constants.BLACK;
+        return empty;
+    }
+
+    public int countPieces(char player) {
+        return Long.bitCount(getPieces(player));
+    }
+
+    /**
+     * True if the player holds every position of the mill, a bit mask of positions.
+     */
+    public boolean hasMill(long mill, char player) {
+        return (getPieces(player) & mill) == mill;
+    }
+
+    /**
+     * The positions that differ between the two boards, the squares a move touched.
+     */
+    public long diff(Bitboard other) {
+        return (white ^ other.white) | (black ^ other.black);
+    }
+
+    public Bitboard swapColors() {
+        return new Bitboard(black, white, length, empty);
+    }
+
+    /**
+     * The board with the position set to the player, or emptied for any other character.
+     */
+    public Bitboard set(int position, char player) {
+        long bit = 1L << position;
+        long newWhite = white & ~bit;
+        long newBlack = black & ~bit;
+        if (player == Constants.WHITE) newWhite |= bit;
+        else if (player == Constants.BLACK) newBlack |= bit;
+        return new Bitboard(newWhite, newBlack, length, empty);
+    }
+
+    /**
+     * The board with the piece on position i moved to position symmetry[i].
+     */
+    public Bitboard permute(int[] symmetry) {
+        return new Bitboard(permute(white, symmetry), permute(black, symmetry), length, empty);
+    }
+
+    /**
+     * The board with the piece on position symmetry[i] moved back to position i, undoing permute().
+     */
+    public Bitboard unpermute(int[] symmetry) {
+        long newWhite = 0;
+        long newBlack = 0;
+        for (int i = 0; i < length; i++) {
+            long bit = 1L << symmetry[i];
+            if ((white & bit) != 0) newWhite |= 1L << i;
+            else if ((black & bit) != 0) newBlack |= 1L << i;
+        }
+        return new Bitboard(newWhite, newBlack, length, empty);
+    }
+
+    /**
+     * Orders boards of the same length and empty character the way their board state strings compare.
+     */
+    public int compareBoardState(Bitboard other) {
+        long differ = diff(other);
+        if (differ == 0) return length - other.length;
+        int position = Long.numberOfTrailingZeros(differ);
+        return charAt(position) - other.charAt(position);
+    }
+
+    private static long permute(long pieces, int[] symmetry) {
+        long result = 0;
+        for (long bits = pieces; bits != 0; bits &= bits - 1)
+            result |= 1L << symmetry[Long.numberOfTrailingZeros(bits)];
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        char[] result = new char[length];
+        for (int i = 0; i < length; i++)
+            result[i] = charAt(i);
+        return new String(result);
+    }
+
+    @Override
+    public int hashCode() {
+        long hash = white * 31 + black;
+        return (int) (hash ^ (hash >>> 32)) * 31 + length;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Bitboard)) return false;
+        Bitboard other = (Bitboard) obj;
+        return white == other.white && black == other.black && length == other.length && empty == other.empty;
+    }
+}
@@ -0,0 +1,255 @@
+package net.networkdowntime.morris.board;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The geometry of a game board: its positions in board state string order, which positions are connected and which form mills.
+ *
+ * Layouts are properties files (see boards/nine-mens-morris.properties) and are enabled with the morris.board.layout system
+ * property, a comma separated list of built-in layout names or file paths.  The layout for a board state is picked by the length
+ * of the board state string.  Without a layout board states are treated as opaque strings.
+ *
+ * @author rwiles
+ *
+ */
+public class BoardLayout {
+    static final Logger log = LogManager.getLogger(BoardLayout.class);
+
+    public static final String LAYOUT_PROPERTY = "morris.board.layout";
+
+    private static final Map<Integer, BoardLayout> layoutsByLength = loadConfiguredLayouts();
+
+    private final String name;
+    private final String[] positions;
+    private final int piecesPerPlayer;
+    private final long[] adjacent; // bit mask of the positions connected to each position
+    private final long[] mills; // bit mask of each mill
+    private final int[][] symmetries; // position i maps to symmetries[s][i], the first one is the identity
+
+    private BoardLayout(String name, String[] positions, int piecesPerPlayer, long[] adjacent, long[] mills) {
+        this.name = name;
+        this.positions = positions;
+        this.piecesPerPlayer = piecesPerPlayer;
+        this.adjacent = adjacent;
+        this.mills = mills;
+        this.symmetries = findSymmetries();
+    }
+
+    /**
+     * The configured layout for boards of this length, or null if there isn't one.
+     */
+    public static BoardLayout forBoardLength(int length) {
+        return layoutsByLength.get(length);
+    }
+
+    public static Collection<BoardLayout> getConfiguredLayouts() {
+        return Collections.unmodifiableCollection(layoutsByLength.values());
+    }
+
+    public static BoardLayout load(String nameOrPath) throws IOException {
+        File file = new File(nameOrPath);
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                return parse(in);
+            }
+        }
+        try (InputStream in = BoardLayout.class.getResourceAsStream("/boards/" + nameOrPath + ".properties")) {
+            if (in == null) throw new IOException("No board layout file or built-in layout named '" + nameOrPath + "'");
+            return parse(in);
+        }
+    }
+
+    static BoardLayout parse(InputStream in) throws IOException {
+        Properties properties = new Properties();
+        properties.load(in);
+
+        String[] positions = split(properties.getProperty("positions"), "\\s+");
+        if (positions.length == 0 || positions.length > 64) throw new IOException("A board layout needs between 1 and 64 positions");
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        for (int i = 0; i < positions.length; i++)
+            if (index.put(positions[i], i) != null) throw new IOException("Position '" + positions[i] + "' is listed twice");
+
+        long[] adjacent = new long[positions.length];
+        for (String edge : split(properties.getProperty("edges"), "\\s+")) {
+            int[] ends = toPositions(edge, index, 2);
+            adjacent[ends[0]] |= 1L << ends[1];
+            adjacent[ends[1]] |= 1L << ends[0];
+        }
+
+        List<Long> mills = new ArrayList<Long>();
+        for (String mill : split(properties.getProperty("mills"), "\\s+")) {
+            long mask = 0;
+            for (int position : toPositions(mill, index, -1))
+                mask |= 1L << position;
+            mills.add(mask);
+        }
+        long[] millMasks = new long[mills.size()];
+        for (int i = 0; i < millMasks.length; i++)
+            millMasks[i] = mills.get(i);
+
+        int pieces = Integer.parseInt(properties.getProperty("pieces", "9").trim());
+        return new BoardLayout(properties.getProperty("name", "unnamed"), positions, pieces, adjacent, millMasks);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPositionCount() {
+        return positions.length;
+    }
+
+    public String getPositionName(int position) {
+        return positions[position];
+    }
+
+    public int getPiecesPerPlayer() {
+        return piecesPerPlayer;
+    }
+
+    public long getAdjacent(int position) {
+        return adjacent[position];
+    }
+
+    public long[] getMills() {
+        return mills;
+    }
+
+    /**
+     * Every rotation, reflection or ring swap that maps the board onto itself, keeping connections and mills.  Each symmetry is a
+     * permutation where position i maps to symmetry[i]; the first symmetry is the identity.
+     */
+    public int[][] getSymmetries() {
+        return symmetries;
+    }
+
+    private int[][] findSymmetries() {
+        int n = positions.length;
+
+        // assign positions in breadth first order so every position after the first has an assigned neighbour to check against
+        int[] order = new int[n];
+        boolean[] seen = new boolean[n];
+        int count = 0;
+        for (int start = 0; start < n; start++) {
+            if (seen[start]) continue;
+            seen[start] = true;
+            order[count++] = start;
+            for (int i = count - 1; i < count; i++)
+                for (int next = 0; next < n; next++)
+                    if ((adjacent[order[i]] & (1L << next)) != 0 && !seen[next]) {
+                        seen[next] = true;
+                        order[count++] = next;
+                    }
+        }
+
+        Set<Long> millSet = new HashSet<Long>();
+        for (long mill : mills)
+            millSet.add(mill);
+
+        List<int[]> found = new ArrayList<int[]>();
+        int[] image = new int[n];
+        Arrays.fill(image, -1);
+        searchSymmetries(order, 0, image, new boolean[n], millSet, found);
+
+        // keep the identity first
+        for (int i = 0; i < found.size(); i++) {
+            boolean identity = true;
+            for (int p = 0; p < n && identity; p++)
+                identity = found.get(i)[p] == p;
+            if (identity) {
+                found.add(0, found.remove(i));
+                break;
+            }
+        }
+        log.debug("Board layout '" + name + "' has " + found.size() + " symmetries");
+        return found.toArray(new int[found.size()][]);
+    }
+
+    private void searchSymmetries(int[] order, int depth, int[] image, boolean[] used, Set<Long> millSet, List<int[]> found) {
+        int n = order.length;
+        if (depth == n) {
+            for (long mill : mills)
+                if (!millSet.contains(mapMask(mill, image))) return;
+            found.add(image.clone());
+            return;
+        }
+
+        int position = order[depth];
+        for (int candidate = 0; candidate < n; candidate++) {
+            if (used[candidate] || Long.bitCount(adjacent[candidate]) != Long.bitCount(adjacent[position])) continue;
+
+            boolean consistent = true;
+            for (int i = 0; i < depth && consistent; i++) {
+                int assigned = order[i];
+                boolean connected = (adjacent[position] & (1L << assigned)) != 0;
+                boolean imageConnected = (adjacent[candidate] & (1L << image[assigned])) != 0;
+                consistent = connected == imageConnected;
+            }
+            if (!consistent) continue;
+
+            image[position] = candidate;
+            used[candidate] = true;
+            searchSymmetries(order, depth + 1, image, used, millSet, found);
+            used[candidate] = false;
+            image[position] = -1;
+        }
+    }
+
+    private static long mapMask(long mask, int[] image) {
+        long mapped = 0;
+        for (long bits = mask; bits != 0; bits &= bits - 1)
+            mapped |= 1L << image[Long.numberOfTrailingZeros(bits)];
+        return mapped;
+    }
+
+    private static int[] toPositions(String group, Map<String, Integer> index, int expectedSize) throws IOException {
+        String[] names = group.split("-");
+        if (expectedSize > 0 && names.length != expectedSize) throw new IOException("'" + group + "' should list " + expectedSize + " positions");
+        int[] result = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            Integer position = index.get(names[i]);
+            if (position == null) throw new IOException("Unknown position '" + names[i] + "' in '" + group + "'");
+            result[i] = position;
+        }
+        return result;
+    }
+
+    private static String[] split(String value, String regex) {
+        if (value == null || value.trim().isEmpty()) return new String[0];
+        return value.trim().split(regex);
+    }
+
+    private static Map<Integer, BoardLayout> loadConfiguredLayouts() {
+        Map<Integer, BoardLayout> layouts = new HashMap<Integer, BoardLayout>();
+        String configured = System.getProperty(LAYOUT_PROPERTY);
+        if (configured == null) return layouts;
+
+        for (String nameOrPath : configured.split(",")) {
+            if (nameOrPath.trim().isEmpty()) continue;
+            try {
+                BoardLayout layout = load(nameOrPath.trim());
+                layouts.put(layout.getPositionCount(), layout);
+                log.info("Using board layout '" + layout.getName() + "' for " + layout.getPositionCount() + " position boards");
+            } catch (IOException e) {
+                log.error("Unable to load board layout '" + nameOrPath + "': " + e.getMessage());
+            }
+        }
+        return layouts;
+    }
+}
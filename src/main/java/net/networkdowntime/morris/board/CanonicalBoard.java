@@ -0,0 +1,74 @@
+package net.networkdowntime.morris.board;
+
+/**
+ * A board state reduced to one representative of all the positions that are the same under the board's symmetries, along with the
+ * symmetry that got it there so moves can be mapped between the two orientations.  Without a configured layout the board state is
+ * its own canonical form.
+ *
+ * The symmetries are applied to the board's bitboard, so only the pieces move and the board state string is built once.
+ *
+ * @author rwiles
+ *
+ */
+public class CanonicalBoard {
+    private final Bitboard board; // null when the board state doesn't fit a bitboard
+    private final int[] symmetry; // null when no layout is configured for the board
+    private String boardState;
+
+    private CanonicalBoard(Bitboard board, int[] symmetry, String boardState) {
+        this.board = board;
+        this.symmetry = symmetry;
+        this.boardState = boardState;
+    }
+
+    public static CanonicalBoard of(String boardState) {
+        Bitboard board = Bitboard.tryParse(boardState);
+        BoardLayout layout = BoardLayout.forBoardLength(boardState.length());
+        if (board == null || layout == null) return new CanonicalBoard(board, null, boardState);
+
+        Bitboard best = null;
+        int[] bestSymmetry = null;
+        for (int[] symmetry : layout.getSymmetries()) {
+            Bitboard transformed = board.permute(symmetry);
+            if (best == null || transformed.compareBoardState(best) < 0) {
+                best = transformed;
+                bestSymmetry = symmetry;
+            }
+        }
+        return new CanonicalBoard(best, bestSymmetry, null);
+    }
+
+    public String getBoardState() {
+        if (boardState == null) boardState = board.toString();
+        return boardState;
+    }
+
+    /**
+     * The canonical board, or null if the board state doesn't fit a bitboard.
+     */
+    public Bitboard getBitboard() {
+        return board;
+    }
+
+    /**
+     * Maps a move made on the original board to the canonical orientation.
+     */
+    public Bitboard toCanonical(Bitboard move) {
+        return symmetry == null ? move : move.permute(symmetry);
+    }
+
+    /**
+     * Maps a move made on the canonical board back to the original orientation.
+     */
+    public Bitboard toOriginal(Bitboard move) {
+        return symmetry == null ? move : move.unpermute(symmetry);
+    }
+
+    public String toCanonical(String move) {
+        return symmetry == null ? move : toCanonical(Bitboard.parse(move)).toString();
+    }
+
+    public String toOriginal(String move) {
+        return symmetry == null ? move : toOriginal(Bitboard.parse(move)).toString();
+    }
+}
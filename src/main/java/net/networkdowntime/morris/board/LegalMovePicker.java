@@ -0,0 +1,42 @@
+package net.networkdowntime.morris.board;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import net.networkdowntime.morris.Constants;
+
+/**
+ * The last resort when the engine can't answer in time: a legal move picked without searching.  A move that takes one of the
+ * opponent's pieces is preferred, otherwise any legal move is picked at random.  Plays white, like the engine, and needs the
+ * board layout for the board state's length.
+ *
+ * @author rwiles
+ *
+ */
+public class LegalMovePicker {
+
+    /**
+     * A legal move, or null if there is no layout for the board or no legal move.
+     */
+    public static String pick(String boardState, int unplayedPieceCount) {
+        BoardLayout layout = BoardLayout.forBoardLength(boardState.length());
+        if (layout == null) return null;
+
+        Bitboard board = Bitboard.tryParse(boardState);
+        if (board == null) return null;
+
+        List<Bitboard> moves;
+        if (unplayedPieceCount > 0) moves = MoveGenerator.getPlacements(layout, board, Constants.WHITE, Constants.BLACK);
+        else moves = MoveGenerator.getSlides(layout, board, Constants.WHITE, Constants.BLACK);
+        if (moves.isEmpty()) return null;
+
+        int opponentPieces = board.countPieces(Constants.BLACK);
+        List<Bitboard> captures = new ArrayList<Bitboard>();
+        for (Bitboard move : moves)
+            if (move.countPieces(Constants.BLACK) < opponentPieces) captures.add(move);
+
+        List<Bitboard> choices = captures.isEmpty() ? moves : captures;
+        return choices.get(ThreadLocalRandom.current().nextInt(choices.size())).toString();
+    }
+}
@@ -0,0 +1,97 @@
+package net.networkdowntime.morris.board;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates the board states a player can reach in one move.  A position holding neither player's piece is empty, and the empty
+ * character of the board state passed in is kept in the results.  Moves are generated on bitboards, the String versions convert
+ * at the edges.
+ *
+ * @author rwiles
+ *
+ */
+public class MoveGenerator {
+
+    /**
+     * Every board state after the player places a piece on an empty position, removing an opponent's piece if that closes a mill.
+     */
+    public static List<String> getPlacements(BoardLayout layout, String boardState, char player, char opponent) {
+        return toStrings(getPlacements(layout, Bitboard.parse(boardState), player, opponent));
+    }
+
+    public static List<Bitboard> getPlacements(BoardLayout layout, Bitboard board, char player, char opponent) {
+        List<Bitboard> results = new ArrayList<Bitboard>();
+        for (long empty = board.getEmpty(); empty != 0; empty &= empty - 1) {
+            int position = Long.numberOfTrailingZeros(empty);
+            Bitboard next = board.set(position, player);
+            if (closesMill(layout, next.getPieces(player), position)) addRemovals(layout, next, opponent, results);
+            else results.add(next);
+        }
+        return results;
+    }
+
+    /**
+     * Every board state after the player moves a piece to a connected empty position, or to any empty position once the player is
+     * down to three pieces and may fly, removing an opponent's piece if that closes a mill.
+     */
+    public static List<String> getSlides(BoardLayout layout, String boardState, char player, char opponent) {
+        return toStrings(getSlides(layout, Bitboard.parse(boardState), player, opponent));
+    }
+
+    public static List<Bitboard> getSlides(BoardLayout layout, Bitboard board, char player, char opponent) {
+        List<Bitboard> results = new ArrayList<Bitboard>();
+        long pieces = board.getPieces(player);
+        long empty = board.getEmpty();
+        boolean flying = Long.bitCount(pieces) == 3;
+
+        for (long from = pieces; from != 0; from &= from - 1) {
+            int fromPosition = Long.numberOfTrailingZeros(from);
+            Bitboard lifted = board.set(fromPosition, board.getEmptyChar());
+
+            long targets = flying ? empty : empty & layout.getAdjacent(fromPosition);
+            for (; targets != 0; targets &= targets - 1) {
+                int position = Long.numberOfTrailingZeros(targets);
+                Bitboard next = lifted.set(position, player);
+                if (closesMill(layout, next.getPieces(player), position)) addRemovals(layout, next, opponent, results);
+                else results.add(next);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * True if the position is part of a mill made of the pieces, a bit mask of positions.
+     */
+    public static boolean closesMill(BoardLayout layout, long pieces, int position) {
+        long bit = 1L << position;
+        for (long mill : layout.getMills())
+            if ((mill & bit) != 0 && (pieces & mill) == mill) return true;
+        return false;
+    }
+
+    // the opponent loses a piece that isn't in a mill, or any piece if they're all in mills
+    private static void addRemovals(BoardLayout layout, Bitboard board, char opponent, List<Bitboard> results) {
+        long opponentPieces = board.getPieces(opponent);
+        long inMills = 0;
+        for (long mill : layout.getMills())
+            if ((opponentPieces & mill) == mill) inMills |= mill;
+
+        long removable = opponentPieces & ~inMills;
+        if (removable == 0) removable = opponentPieces;
+        if (removable == 0) {
+            results.add(board);
+            return;
+        }
+
+        for (; removable != 0; removable &= removable - 1)
+            results.add(board.set(Long.numberOfTrailingZeros(removable), board.getEmptyChar()));
+    }
+
+    private static List<String> toStrings(List<Bitboard> boards) {
+        List<String> results = new ArrayList<String>(boards.size());
+        for (Bitboard board : boards)
+            results.add(board.toString());
+        return results;
+    }
+}
@@ -0,0 +1,137 @@
+package net.networkdowntime.morris.book;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.networkdowntime.morris.board.Bitboard;
+import net.networkdowntime.morris.board.CanonicalBoard;
+
+/**
+ * Precomputed opening moves, built offline by the OpeningBookBuilder.
+ *
+ * Positions are stored in their canonical form as a pair of bit masks (white pieces, black pieces) sorted for a binary search.
+ *
+ * File layout: magic, version, board length, hash of the opening command, entry count, then per entry the white & black masks of
+ * the position followed by the white & black masks of the move.
+ *
+ * @author rwiles
+ *
+ */
+public class OpeningBook {
+    public static final String FILE_PROPERTY = "morris.book.file";
+
+    private static final int MAGIC = 0x424f4f4b; // BOOK
+    private static final int VERSION = 1;
+
+    private final int boardLength;
+    private final int commandHash;
+    private final long[] positionWhite;
+    private final long[] positionBlack;
+    private final long[] moveWhite;
+    private final long[] moveBlack;
+
+    private OpeningBook(int boardLength, int commandHash, long[] positionWhite, long[] positionBlack, long[] moveWhite, long[] moveBlack) {
+        this.boardLength = boardLength;
+        this.commandHash = commandHash;
+        this.positionWhite = positionWhite;
+        this.positionBlack = positionBlack;
+        this.moveWhite = moveWhite;
+        this.moveBlack = moveBlack;
+    }
+
+    public static OpeningBook load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException(file + " is not an opening book");
+            if (in.readInt() != VERSION) throw new IOException(file + " is from an incompatible version of the opening book builder");
+            int boardLength = in.readInt();
+            int commandHash = in.readInt();
+            int count = in.readInt();
+
+            long[] positionWhite = new long[count];
+            long[] positionBlack = new long[count];
+            long[] moveWhite = new long[count];
+            long[] moveBlack = new long[count];
+            for (int i = 0; i < count; i++) {
+                positionWhite[i] = in.readLong();
+                positionBlack[i] = in.readLong();
+                moveWhite[i] = in.readLong();
+                moveBlack[i] = in.readLong();
+            }
+            return new OpeningBook(boardLength, commandHash, positionWhite, positionBlack, moveWhite, moveBlack);
+        }
+    }
+
+    /**
+     * Writes the canonical positions and their canonical moves as a book.
+     */
+    public static void write(File file, int boardLength, String openingCommand, Map<String, String> canonicalMoves) throws IOException {
+        TreeMap<long[], long[]> sorted = new TreeMap<long[], long[]>((a, b) -> compare(a[0], a[1], b[0], b[1]));
+        for (Map.Entry<String, String> entry : canonicalMoves.entrySet())
+            sorted.put(pack(entry.getKey()), pack(entry.getValue()));
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(boardLength);
+            out.writeInt(openingCommand.hashCode());
+            out.writeInt(sorted.size());
+            for (Map.Entry<long[], long[]> entry : sorted.entrySet()) {
+                out.writeLong(entry.getKey()[0]);
+                out.writeLong(entry.getKey()[1]);
+                out.writeLong(entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+            }
+        }
+    }
+
+    /**
+     * The book move for the board state in the board's own orientation, or null when the position is out of book.
+     */
+    public String lookup(String boardState) {
+        if (boardState.length() != boardLength) return null;
+        CanonicalBoard canonical = CanonicalBoard.of(boardState);
+        Bitboard position = canonical.getBitboard();
+        if (position == null) return null;
+
+        int low = 0;
+        int high = positionWhite.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(positionWhite[mid], positionBlack[mid], position.getWhite(), position.getBlack());
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return canonical.toOriginal(position.withPieces(moveWhite[mid], moveBlack[mid])).toString();
+        }
+        return null;
+    }
+
+    public boolean isBuiltFor(String openingCommand) {
+        return commandHash == openingCommand.hashCode();
+    }
+
+    public int getBoardLength() {
+        return boardLength;
+    }
+
+    public int size() {
+        return positionWhite.length;
+    }
+
+    private static int compare(long white1, long black1, long white2, long black2) {
+        int cmp = Long.compare(white1, white2);
+        return cmp != 0 ? cmp : Long.compare(black1, black2);
+    }
+
+    private static long[] pack(String boardState) {
+        Bitboard board = Bitboard.parse(boardState);
+        return new long[] { board.getWhite(), board.getBlack() };
+    }
+}
@@ -0,0 +1,118 @@
+package net.networkdowntime.morris.book;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.networkdowntime.morris.Constants;
+import net.networkdowntime.morris.MoveExecutor;
+import net.networkdowntime.morris.MoveHandler;
+import net.networkdowntime.morris.board.Bitboard;
+import net.networkdowntime.morris.board.BoardLayout;
+import net.networkdowntime.morris.board.CanonicalBoard;
+import net.networkdowntime.morris.board.MoveGenerator;
+import net.networkdowntime.morris.dtos.GameState;
+import net.networkdowntime.morris.engine.EngineCommand;
+
+/**
+ * Walks the opening tree from the empty board and asks the opening command for our move in every position we can reach within
+ * the requested number of our own moves, playing both as the first and as the second player.  Every opponent reply is followed,
+ * positions that are the same under the board's symmetries are only computed once, and positions of a level are computed in
+ * parallel on the move executor.
+ *
+ * @author rwiles
+ *
+ */
+public class OpeningBookBuilder {
+    static final Logger log = LogManager.getLogger(OpeningBookBuilder.class);
+
+    private final BoardLayout layout;
+    private final int depth;
+    private final Map<String, String> book = new ConcurrentHashMap<String, String>();
+
+    public OpeningBookBuilder(BoardLayout layout, int depth) {
+        this.layout = layout;
+        this.depth = depth;
+    }
+
+    public void build(File bookFile) throws Exception {
+        String emptyBoard = new String(new char[layout.getPositionCount()]).replace('\0', Constants.EMPTY);
+
+        // positions where it's our turn, with how many pieces each player has placed
+        Map<String, int[]> level = new LinkedHashMap<String, int[]>();
+        level.put(CanonicalBoard.of(emptyBoard).getBoardState(), new int[] { 0, 0 });
+        for (String reply : MoveGenerator.getPlacements(layout, emptyBoard, Constants.BLACK, Constants.WHITE))
+            level.put(CanonicalBoard.of(reply).getBoardState(), new int[] { 0, 1 });
+
+        long startTime = System.currentTimeMillis();
+        for (int ply = 1; ply <= depth && !level.isEmpty(); ply++) {
+            System.out.println("Opening book level " + ply + " of " + depth + ": " + level.size() + " positions");
+            Map<String, String> moves = computeMoves(level);
+
+            Map<String, int[]> nextLevel = new LinkedHashMap<String, int[]>();
+            for (Map.Entry<String, String> entry : moves.entrySet()) {
+                int[] placed = level.get(entry.getKey());
+                int whitePlaced = placed[0] + 1;
+                int blackPlaced = placed[1];
+                if (ply == depth || whitePlaced >= layout.getPiecesPerPlayer() || blackPlaced >= layout.getPiecesPerPlayer()) continue;
+
+                for (String reply : MoveGenerator.getPlacements(layout, entry.getValue(), Constants.BLACK, Constants.WHITE)) {
+                    String position = CanonicalBoard.of(reply).getBoardState();
+                    if (!book.containsKey(position) && !nextLevel.containsKey(position)) nextLevel.put(position, new int[] { whitePlaced, blackPlaced + 1 });
+                }
+            }
+            level = nextLevel;
+        }
+
+        String openingCommand = EngineCommand.parse(MoveHandler.openingCommandLine).getCommandLine();
+        OpeningBook.write(bookFile, layout.getPositionCount(), openingCommand, book);
+        System.out.println("Wrote " + book.size() + " positions to " + bookFile + " in " + (System.currentTimeMillis() - startTime) / 1000 + "s");
+    }
+
+    private Map<String, String> computeMoves(Map<String, int[]> level) throws Exception {
+        // keeps no more moves in flight than the move executor's queue accepts
+        final Semaphore inFlight = new Semaphore(MoveExecutor.getQueueCapacity());
+        final Map<String, String> moves = new ConcurrentHashMap<String, String>();
+        List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+
+        for (Map.Entry<String, int[]> entry : level.entrySet()) {
+            final String position = entry.getKey();
+            GameState gameState = new GameState();
+            gameState.currentBoardState = position;
+
+            inFlight.acquire();
+            CompletableFuture<String> future = MoveHandler.submitSearchedMove(gameState, layout.getPiecesPerPlayer() - entry.getValue()[0]);
+            futures.add(future.whenComplete((move, error) -> {
+                inFlight.release();
+                if (error != null) {
+                    log.error("Skipping " + position + ", the opening command failed: " + error.getMessage());
+                } else if (!isPlacement(layout, position, move)) {
+                    log.error("Skipping " + position + ": the command answered with " + move + ", which isn't a legal placement");
+                } else {
+                    moves.put(position, move);
+                    book.put(position, move);
+                }
+            }));
+        }
+
+        for (CompletableFuture<String> future : futures) {
+            try {
+                future.join();
+            } catch (Exception e) {} // already logged
+        }
+        return moves;
+    }
+
+    private static boolean isPlacement(BoardLayout layout, String position, String move) {
+        Bitboard after = Bitboard.tryParse(move);
+        return after != null && MoveGenerator.getPlacements(layout, Bitboard.parse(position), Constants.WHITE, Constants.BLACK).contains(after);
+    }
+}
@@ -0,0 +1,102 @@
+package net.networkdowntime.morris.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed size, open addressing hash table of moves kept in a memory-mapped file so cached moves survive restarts.
+ * When every slot a key probes is taken the key's home slot is overwritten.  Callers synchronize access.
+ *
+ * File layout: header (magic, version, slot count, slot size) followed by the slots.
+ * Slot layout: key hash (8 bytes), board length (1 byte, 0 when empty), board state, move.
+ *
+ * @author rwiles
+ *
+ */
+class MappedMoveStore {
+    static final int MAX_BOARD_LENGTH = 64;
+
+    private static final int MAGIC = 0x4d4f5645; // MOVE
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 8 + 1 + 2 * MAX_BOARD_LENGTH;
+    private static final int MAX_PROBES = 16;
+
+    private final int slotCount;
+    private final MappedByteBuffer buffer;
+
+    MappedMoveStore(File file, int requestedSlots) throws IOException {
+        this.slotCount = Integer.highestOneBit(Math.max(MAX_PROBES, requestedSlots));
+        long size = HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            boolean compatible = raf.length() == size && raf.readInt() == MAGIC && raf.readInt() == VERSION //
+                    && raf.readInt() == slotCount && raf.readInt() == SLOT_SIZE;
+            if (!compatible) raf.setLength(0); // a fresh or differently sized table, start over
+            raf.setLength(size);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, slotCount);
+        buffer.putInt(12, SLOT_SIZE);
+    }
+
+    String get(long keyHash, String boardState) {
+        byte[] board = boardState.getBytes(StandardCharsets.ISO_8859_1);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = slotOffset(keyHash, probe);
+            int length = buffer.get(slot + 8);
+            if (length == 0) return null;
+            if (buffer.getLong(slot) == keyHash && length == board.length && boardEquals(slot + 9, board)) {
+                byte[] move = new byte[length];
+                for (int i = 0; i < length; i++)
+                    move[i] = buffer.get(slot + 9 + MAX_BOARD_LENGTH + i);
+                return new String(move, StandardCharsets.ISO_8859_1);
+            }
+        }
+        return null;
+    }
+
+    void put(long keyHash, String boardState, String move) {
+        if (boardState.length() > MAX_BOARD_LENGTH || move.length() != boardState.length()) return;
+        byte[] board = boardState.getBytes(StandardCharsets.ISO_8859_1);
+
+        int target = slotOffset(keyHash, 0);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = slotOffset(keyHash, probe);
+            int length = buffer.get(slot + 8);
+            if (length == 0 || (buffer.getLong(slot) == keyHash && length == board.length && boardEquals(slot + 9, board))) {
+                target = slot;
+                break;
+            }
+        }
+
+        buffer.put(target + 8, (byte) 0); // mark empty while the slot is rewritten
+        buffer.putLong(target, keyHash);
+        for (int i = 0; i < board.length; i++) {
+            buffer.put(target + 9 + i, board[i]);
+            buffer.put(target + 9 + MAX_BOARD_LENGTH + i, (byte) move.charAt(i));
+        }
+        buffer.put(target + 8, (byte) board.length);
+    }
+
+    void flush() {
+        buffer.force();
+    }
+
+    private boolean boardEquals(int offset, byte[] board) {
+        for (int i = 0; i < board.length; i++)
+            if (buffer.get(offset + i) != board[i]) return false;
+        return true;
+    }
+
+    private int slotOffset(long keyHash, int probe) {
+        int home = (int) (keyHash ^ (keyHash >>> 32));
+        return HEADER_SIZE + ((home + probe) & (slotCount - 1)) * SLOT_SIZE;
+    }
+}
@@ -0,0 +1,172 @@
+package net.networkdowntime.morris.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.networkdowntime.morris.board.Bitboard;
+import net.networkdowntime.morris.board.CanonicalBoard;
+
+/**
+ * Remembers the engine's answer for a (board state, game phase, command) so a position that comes up again doesn't run the engine.
+ *
+ * When a board layout is configured, board states are reduced to a canonical form under the board's symmetries so rotated or
+ * reflected positions share one entry; the cached move is mapped back to the orientation of the board that was asked about.
+ * Boards and moves are kept as bitboards, board states that don't fit one aren't cached.
+ *
+ * Settings (Java system properties):
+ *      morris.cache.enabled:   false turns the cache off for every command (default: true)
+ *      morris.cache.size:      how many moves are kept in memory (default: 100000)
+ *      morris.cache.file:      a file to keep cached moves in across restarts (default: none)
+ *      morris.cache.fileSlots: how many moves the cache file holds (default: 262144)
+ *
+ * @author rwiles
+ *
+ */
+public class MoveCache {
+    static final Logger log = LogManager.getLogger(MoveCache.class);
+
+    public static final String ENABLED_PROPERTY = "morris.cache.enabled";
+    public static final String SIZE_PROPERTY = "morris.cache.size";
+    public static final String FILE_PROPERTY = "morris.cache.file";
+    public static final String FILE_SLOTS_PROPERTY = "morris.cache.fileSlots";
+
+    private static final boolean enabled = Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+    private static final int maxSize = Integer.getInteger(SIZE_PROPERTY, 100000);
+
+    private static final Map<Key, Bitboard> moves = new LinkedHashMap<Key, Bitboard>(1024, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Bitboard> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    private static final MappedMoveStore store = openStore();
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The cached move for the board state, or null.
+     */
+    public static String get(String gamePhase, String command, String boardState) {
+        if (!enabled) return null;
+        CanonicalBoard canonical = CanonicalBoard.of(boardState);
+        Bitboard board = canonical.getBitboard();
+        Bitboard move = null;
+        if (board != null) {
+            Key key = new Key(gamePhase, command, board);
+            synchronized (moves) {
+                move = moves.get(key);
+                if (move == null && store != null) {
+                    String storedMove = store.get(key.hash(), canonical.getBoardState());
+                    if (storedMove != null) move = Bitboard.tryParse(storedMove);
+                    if (move != null) moves.put(key, move);
+                }
+            }
+        }
+
+        if (move == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return canonical.toOriginal(move).toString();
+    }
+
+    public static void put(String gamePhase, String command, String boardState, String move) {
+        if (!enabled || move == null || move.length() != boardState.length()) return;
+        CanonicalBoard canonical = CanonicalBoard.of(boardState);
+        Bitboard board = canonical.getBitboard();
+        Bitboard packedMove = Bitboard.tryParse(move);
+        if (board == null || packedMove == null) return;
+        Key key = new Key(gamePhase, command, board);
+        Bitboard canonicalMove = canonical.toCanonical(packedMove);
+
+        synchronized (moves) {
+            moves.put(key, canonicalMove);
+            if (store != null) store.put(key.hash(), canonical.getBoardState(), canonicalMove.toString());
+        }
+    }
+
+    public static long getHitCount() {
+        return hits.sum();
+    }
+
+    public static long getMissCount() {
+        return misses.sum();
+    }
+
+    public static int getSize() {
+        synchronized (moves) {
+            return moves.size();
+        }
+    }
+
+    private static MappedMoveStore openStore() {
+        String fileName = System.getProperty(FILE_PROPERTY);
+        if (!enabled || fileName == null) return null;
+        try {
+            final MappedMoveStore mappedStore = new MappedMoveStore(new File(fileName), Integer.getInteger(FILE_SLOTS_PROPERTY, 1 << 18));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                synchronized (moves) {
+                    mappedStore.flush();
+                }
+            }, "move-cache-flush"));
+            log.info("Using move cache file " + fileName);
+            return mappedStore;
+        } catch (IOException e) {
+            log.error("Unable to open the move cache file " + fileName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static class Key {
+        final String gamePhase;
+        final String command;
+        final Bitboard board;
+
+        Key(String gamePhase, String command, Bitboard board) {
+            this.gamePhase = gamePhase;
+            this.command = command;
+            this.board = board;
+        }
+
+        // 64 bit FNV-1a of the board state string, used as the key in the cache file
+        long hash() {
+            long hash = 0xcbf29ce484222325L;
+            for (String part : new String[] { gamePhase, command, board.toString() }) {
+                for (int i = 0; i < part.length(); i++) {
+                    hash ^= part.charAt(i);
+                    hash *= 0x100000001b3L;
+                }
+                hash ^= '\n';
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return (gamePhase.hashCode() * 31 + command.hashCode()) * 31 + board.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return board.equals(other.board) && gamePhase.equals(other.gamePhase) && command.equals(other.command);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package net.networkdowntime.morris.dispatch;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.networkdowntime.morris.Constants;
+import net.networkdowntime.morris.dtos.GameState;
+import net.networkdowntime.morris.http.HttpTransport;
+import net.networkdowntime.morris.metrics.Metrics;
+import net.networkdowntime.morris.scheduling.TimerWheel;
+
+/**
+ * Makes a Mode 1 wrapper a dispatcher: instead of running the engines itself it forwards every move request to one of the
+ * worker wrappers, other Mode 1 wrappers, so the engines of one public end-point run on the cores of several machines.
+ *
+ * A move goes to the healthy worker with the fewest moves outstanding.  When the worker can't be reached, fails, turns the move
+ * away or doesn't answer in time, the move is sent to another worker while the request's deadline leaves time for it, at most
+ * morris.dispatch.retries times.  A worker that can't be reached or fails its health check is left out until a health check
+ * succeeds again; a worker that is only busy stays in.
+ *
+ * Settings (Java system properties):
+ *      morris.dispatch.workers:        comma separated base URLs of the worker wrappers, http://host:port (default: none, moves run here)
+ *      morris.dispatch.retries:        how many other workers a failed move is sent to (default: 2)
+ *      morris.dispatch.attemptTimeout: milliseconds a worker gets for a move before it's sent to another, 0 gives it the request's
+ *                                      whole deadline (default: 0)
+ *      morris.dispatch.healthInterval: milliseconds between health checks of every worker (default: 2000)
+ *      morris.dispatch.healthTimeout:  milliseconds a health check may take (default: 1000)
+ *
+ * @author rwiles
+ *
+ */
+public class Dispatcher {
+    static final Logger log = LogManager.getLogger(Dispatcher.class);
+
+    public static final String WORKERS_PROPERTY = "morris.dispatch.workers";
+    public static final String RETRIES_PROPERTY = "morris.dispatch.retries";
+    public static final String ATTEMPT_TIMEOUT_PROPERTY = "morris.dispatch.attemptTimeout";
+    public static final String HEALTH_INTERVAL_PROPERTY = "morris.dispatch.healthInterval";
+    public static final String HEALTH_TIMEOUT_PROPERTY = "morris.dispatch.healthTimeout";
+
+    public static final String MOVE_PATH = "/api/clientWrapper/processMove";
+    public static final String HEALTH_PATH = "/api/clientWrapper/health";
+
+    private static final int retries = Math.max(0, Integer.getInteger(RETRIES_PROPERTY, 2));
+    private static final long attemptTimeout = Math.max(0, Long.getLong(ATTEMPT_TIMEOUT_PROPERTY, 0));
+    private static final long healthInterval = Math.max(100, Long.getLong(HEALTH_INTERVAL_PROPERTY, 2000));
+    private static final long healthTimeout = Math.max(100, Long.getLong(HEALTH_TIMEOUT_PROPERTY, 1000));
+
+    // the worker is told to answer this much before the attempt ends, so its own 503 comes back before the attempt is given up
+    private static final long FORWARD_MARGIN = 100;
+    // an attempt with less time than this left isn't worth sending
+    private static final long MIN_ATTEMPT = 50;
+
+    private static final List<Worker> workers = parseWorkers(System.getProperty(WORKERS_PROPERTY));
+    private static final AtomicInteger nextStart = new AtomicInteger();
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * One worker wrapper and what the dispatcher knows about it.
+     */
+    public static class Worker {
+        final String url;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final LongAdder moves = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final AtomicBoolean healthy = new AtomicBoolean(true);
+
+        Worker(String url) {
+            this.url = url;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public boolean isHealthy() {
+            return healthy.get();
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public long getMoves() {
+            return moves.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        void markDown(String reason) {
+            if (healthy.compareAndSet(true, false)) log.warn("Worker " + url + " is down: " + reason);
+        }
+
+        void markUp() {
+            if (healthy.compareAndSet(false, true)) log.warn("Worker " + url + " is back up");
+        }
+    }
+
+    public static boolean isEnabled() {
+        return !workers.isEmpty();
+    }
+
+    public static List<Worker> getWorkers() {
+        return workers;
+    }
+
+    public static int getHealthyWorkerCount() {
+        int healthy = 0;
+        for (Worker worker : workers)
+            if (worker.healthy.get()) healthy++;
+        return healthy;
+    }
+
+    /**
+     * Starts the health checks of the workers.
+     */
+    public static void start() {
+        if (!isEnabled()) return;
+        Metrics.register("morris_dispatch_healthy_workers", "Worker wrappers passing their health checks, Mode 1 dispatcher", "gauge", Dispatcher::getHealthyWorkerCount);
+        TimerWheel.shared().schedule(Dispatcher::checkHealth, healthInterval);
+    }
+
+    /**
+     * Forwards the move to a worker, and to others when it fails, until the deadline (System.nanoTime()) passes.  Fails with a
+     * TimeoutException when the deadline passed, with a RejectedExecutionException when every worker turned the move away or
+     * failed, and with an HttpTransport.HttpError carrying the worker's status when a worker answered 4xx.
+     *
+     * @throws RejectedExecutionException if no worker is healthy
+     */
+    public static CompletableFuture<String> submitNextMove(GameState gameState, long deadline) {
+        final String body;
+        try {
+            body = objectMapper.writeValueAsString(gameState);
+        } catch (Exception e) {
+            CompletableFuture<String> failed = new CompletableFuture<String>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        Worker worker = pickWorker(Collections.<Worker> emptyList());
+        if (worker == null) throw new RejectedExecutionException("No worker is healthy");
+
+        CompletableFuture<String> move = new CompletableFuture<String>();
+        final AtomicReference<HttpRequestBase> inFlight = new AtomicReference<HttpRequestBase>();
+        // a move given up on by the caller stops the request to the worker
+        move.whenComplete((nextMove, error) -> {
+            HttpRequestBase request = inFlight.get();
+            if (move.isCancelled() && request != null) request.abort();
+        });
+        attempt(move, inFlight, body, gameState, deadline, worker, new ArrayList<Worker>());
+        return move;
+    }
+
+    private static void attempt(final CompletableFuture<String> move, final AtomicReference<HttpRequestBase> inFlight, final String body, final GameState gameState, //
+            final long deadline, final Worker worker, final List<Worker> tried) {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining < MIN_ATTEMPT) {
+            move.completeExceptionally(new TimeoutException("The deadline passed after " + tried.size() + " workers were tried"));
+            return;
+        }
+        long budget = attemptTimeout > 0 ? Math.min(attemptTimeout, remaining) : remaining;
+        tried.add(worker);
+
+        final HttpPost post = new HttpPost(worker.url + MOVE_PATH);
+        post.setHeader(Constants.MOVE_TIMEOUT_HEADER, Long.toString(Math.max(MIN_ATTEMPT, budget - FORWARD_MARGIN)));
+        post.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+        // the attempt is timed by the abort below, a shorter socket timeout would end a long search as if the worker were down
+        post.setConfig(RequestConfig.copy(HttpTransport.shared().getRequestConfig()).setSocketTimeout((int) Math.min(Integer.MAX_VALUE, budget + FORWARD_MARGIN)).build());
+        inFlight.set(post);
+        if (move.isDone()) return;
+
+        worker.outstanding.incrementAndGet();
+        final TimerWheel.Timeout timeout = TimerWheel.shared().schedule(post::abort, budget);
+        HttpTransport.shared().send(post, null).whenComplete((response, error) -> {
+            timeout.cancel();
+            worker.outstanding.decrementAndGet();
+            if (move.isDone()) return;
+
+            String failure;
+            if (error != null) {
+                boolean slow = post.isAborted() || isTimeout(error);
+                failure = slow ? "no answer within " + budget + "ms" : error.toString();
+                // a worker that couldn't be reached is left out until its health check passes, a slow one isn't
+                if (!slow) worker.markDown(failure);
+            } else if (response.status == 200) {
+                worker.moves.increment();
+                move.complete(response.body);
+                return;
+            } else if (response.status >= 400 && response.status < 500) {
+                // the game state itself was turned away, another worker would do the same, so the caller gets the worker's answer
+                log.warn("Worker " + worker.url + " turned away the move for game id " + gameState.id + ": " + response.status + " " + response.reason);
+                move.completeExceptionally(new HttpTransport.HttpError(response.status, response.reason));
+                return;
+            } else {
+                failure = "answered " + response.status + " " + response.reason;
+            }
+            worker.failures.increment();
+
+            Worker next = tried.size() <= retries ? pickWorker(tried) : null;
+            if (next == null) {
+                move.completeExceptionally(new RejectedExecutionException("The move for game id " + gameState.id + " failed on " + tried.size() + " workers, last " + worker.url + ": " + failure));
+                return;
+            }
+            Metrics.DISPATCH_RETRIES.increment();
+            log.warn("The move for game id " + gameState.id + " failed on worker " + worker.url + " (" + failure + "), sending it to " + next.url);
+            attempt(move, inFlight, body, gameState, deadline, next, tried);
+        });
+    }
+
+    // the worker or the connection pool was slow to answer, as opposed to the worker not being reachable
+    private static boolean isTimeout(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause())
+            if (cause instanceof SocketTimeoutException || cause instanceof ConnectionPoolTimeoutException) return true;
+        return false;
+    }
+
+    // the healthy worker not tried yet with the fewest moves outstanding, ties going round the workers
+    private static Worker pickWorker(List<Worker> tried) {
+        int start = Math.floorMod(nextStart.getAndIncrement(), workers.size());
+        Worker best = null;
+        for (int i = 0; i < workers.size(); i++) {
+            Worker worker = workers.get((start + i) % workers.size());
+            if (!worker.healthy.get() || tried.contains(worker)) continue;
+            if (best == null || worker.outstanding.get() < best.outstanding.get()) best = worker;
+        }
+        return best;
+    }
+
+    private static void checkHealth() {
+        for (final Worker worker : workers) {
+            final HttpGet get = new HttpGet(worker.url + HEALTH_PATH);
+            final TimerWheel.Timeout timeout = TimerWheel.shared().schedule(get::abort, healthTimeout);
+            HttpTransport.shared().send(get, null).whenComplete((response, error) -> {
+                timeout.cancel();
+                if (error != null) worker.markDown(get.isAborted() ? "no health check answer within " + healthTimeout + "ms" : error.toString());
+                else if (response.status != 200) worker.markDown("health check answered " + response.status + " " + response.reason);
+                else worker.markUp();
+            });
+        }
+        TimerWheel.shared().schedule(Dispatcher::checkHealth, healthInterval);
+    }
+
+    private static List<Worker> parseWorkers(String urls) {
+        List<Worker> parsed = new ArrayList<Worker>();
+        if (urls == null) return parsed;
+        for (String url : urls.split(",")) {
+            url = url.trim();
+            while (url.endsWith("/"))
+                url = url.substring(0, url.length() - 1);
+            if (!url.isEmpty()) parsed.add(new Worker(url));
+        }
+        return Collections.unmodifiableList(parsed);
+    }
+}
@@ -0,0 +1,233 @@
+package net.networkdowntime.morris.engine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * The parsed contents of a command line file.
+ *
+ * Lines starting with '@' are wrapper options in the form "@name=value", every other line is part of the command to run.
+ *
+ * (ex.)
+ *      @workers=2
+ *      java -cp my-project.jar ABOpeningWorker 6
+ *
+ * With "@engine=JAR_FILE" the engine runs inside the wrapper, see MoveEngine.
+ *
+ * Settings (Java system properties):
+ *      morris.engine.timeout: milliseconds a command may search for a move when it doesn't set @timeout, 0 for no limit (default: 30000)
+ *
+ * @author rwiles
+ *
+ */
+public class EngineCommand {
+
+    public static final String OPTION_PREFIX = "@";
+
+    /** Number of long-lived engine processes to keep for this command, 0 runs a new process for every move */
+    public static final String WORKERS_OPTION = "workers";
+    /** How long a long-lived engine process may take to answer before it is considered hung and restarted */
+    public static final String WORKER_TIMEOUT_OPTION = "workerTimeout";
+
+    /** How the board state is exchanged with a one-shot engine: "files" (default) or "stdio" */
+    public static final String IO_OPTION = "io";
+    /** Directory for the move input & output files, "ram" picks a RAM-backed directory */
+    public static final String WORK_DIR_OPTION = "workDir";
+
+    /** Milliseconds the engine may search for a move before it is killed and the fallback answers, 0 for no limit */
+    public static final String TIMEOUT_OPTION = "timeout";
+    /** Command line file of a quicker command that answers when this one fails or runs out of time */
+    public static final String FALLBACK_OPTION = "fallback";
+    /** Comma separated command line files of deeper variants of this command, raced against it on spare cores */
+    public static final String LADDER_OPTION = "ladder";
+
+    /** Class path of the jar with a MoveEngine to run inside the wrapper, the command line names the engine and its parameters */
+    public static final String ENGINE_OPTION = "engine";
+
+    /** "off" keeps this command's moves out of the move cache */
+    public static final String CACHE_OPTION = "cache";
+
+    public static final String IO_FILES = "files";
+    public static final String IO_STDIO = "stdio";
+    public static final String WORK_DIR_RAM = "ram";
+    public static final String CACHE_ON = "on";
+    public static final String CACHE_OFF = "off";
+
+    private static final Set<String> KNOWN_OPTIONS = new HashSet<String>(Arrays.asList(WORKERS_OPTION, WORKER_TIMEOUT_OPTION, IO_OPTION, WORK_DIR_OPTION, TIMEOUT_OPTION, FALLBACK_OPTION, LADDER_OPTION, ENGINE_OPTION, CACHE_OPTION));
+
+    public static final String DEFAULT_TIMEOUT_PROPERTY = "morris.engine.timeout";
+
+    private static final long DEFAULT_WORKER_TIMEOUT = 60 * 1000;
+    private static final long DEFAULT_TIMEOUT = Long.getLong(DEFAULT_TIMEOUT_PROPERTY, 30 * 1000);
+
+    private final String commandLine;
+    private final Map<String, String> options;
+
+    private EngineCommand(String commandLine, Map<String, String> options) {
+        this.commandLine = commandLine;
+        this.options = Collections.unmodifiableMap(options);
+    }
+
+    public static EngineCommand parse(String text) {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        StringBuilder commandLine = new StringBuilder();
+
+        for (String line : text.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            if (line.startsWith(OPTION_PREFIX)) {
+                int index = line.indexOf('=');
+                if (index < 0) throw new IllegalArgumentException("Option '" + line + "' is not in the form " + OPTION_PREFIX + "name=value");
+                String name = line.substring(OPTION_PREFIX.length(), index).trim();
+                if (!KNOWN_OPTIONS.contains(name)) throw new IllegalArgumentException("Unknown option '" + name + "': valid options are " + KNOWN_OPTIONS);
+                options.put(name, line.substring(index + 1).trim());
+            } else {
+                if (commandLine.length() > 0) commandLine.append(' ');
+                commandLine.append(line);
+            }
+        }
+
+        EngineCommand engineCommand = new EngineCommand(commandLine.toString(), options);
+        if (engineCommand.getWorkerCount() < 0) throw new IllegalArgumentException("Option '" + WORKERS_OPTION + "' can not be negative");
+        if (engineCommand.getWorkerTimeout() <= 0) throw new IllegalArgumentException("Option '" + WORKER_TIMEOUT_OPTION + "' must be a positive number of milliseconds");
+        if (engineCommand.getTimeout() < 0) throw new IllegalArgumentException("Option '" + TIMEOUT_OPTION + "' can not be negative");
+        String io = engineCommand.getOption(IO_OPTION);
+        if (io != null && !IO_FILES.equals(io) && !IO_STDIO.equals(io)) throw new IllegalArgumentException("Option '" + IO_OPTION + "' must be '" + IO_FILES + "' or '" + IO_STDIO + "'");
+        if (engineCommand.usesInProcessEngine()) {
+            if (engineCommand.getCommandTokens().isEmpty()) throw new IllegalArgumentException("Option '" + ENGINE_OPTION + "' needs the engine's name on the command line");
+            if (engineCommand.usesWorkerPool() || io != null) throw new IllegalArgumentException("Option '" + ENGINE_OPTION + "' can not be combined with '" + WORKERS_OPTION + "' or '" + IO_OPTION + "'");
+        }
+        String cache = engineCommand.getOption(CACHE_OPTION);
+        if (cache != null && !CACHE_ON.equals(cache) && !CACHE_OFF.equals(cache)) throw new IllegalArgumentException("Option '" + CACHE_OPTION + "' must be '" + CACHE_ON + "' or '" + CACHE_OFF + "'");
+        return engineCommand;
+    }
+
+    public String getCommandLine() {
+        return commandLine;
+    }
+
+    /**
+     * Splits the command line the same way Runtime.exec(String) does.
+     */
+    public List<String> getCommandTokens() {
+        List<String> tokens = new ArrayList<String>();
+        StringTokenizer st = new StringTokenizer(commandLine);
+        while (st.hasMoreTokens())
+            tokens.add(st.nextToken());
+        return tokens;
+    }
+
+    public String getOption(String name) {
+        return options.get(name);
+    }
+
+    public Map<String, String> getOptions() {
+        return options;
+    }
+
+    public int getWorkerCount() {
+        return (int) getNumberOption(WORKERS_OPTION, 0);
+    }
+
+    public long getWorkerTimeout() {
+        return getNumberOption(WORKER_TIMEOUT_OPTION, DEFAULT_WORKER_TIMEOUT);
+    }
+
+    /**
+     * The time budget for a move in milliseconds, 0 for no limit.
+     */
+    public long getTimeout() {
+        return getNumberOption(TIMEOUT_OPTION, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * The command line file of the fallback command, or null if there isn't one.
+     */
+    public String getFallback() {
+        return options.get(FALLBACK_OPTION);
+    }
+
+    /**
+     * The command line files of the ladder's deeper variants, shallowest first, or an empty list if there isn't a ladder.
+     */
+    public List<String> getLadder() {
+        List<String> ladder = new ArrayList<String>();
+        String value = options.get(LADDER_OPTION);
+        if (value == null) return ladder;
+        for (String fileName : value.split(",")) {
+            fileName = fileName.trim();
+            if (!fileName.isEmpty()) ladder.add(fileName);
+        }
+        return ladder;
+    }
+
+    /**
+     * True when the engine is a MoveEngine loaded from a jar instead of a command to run.
+     */
+    public boolean usesInProcessEngine() {
+        return options.containsKey(ENGINE_OPTION);
+    }
+
+    public String getEngineClasspath() {
+        return options.get(ENGINE_OPTION);
+    }
+
+    public boolean usesWorkerPool() {
+        return getWorkerCount() > 0;
+    }
+
+    /**
+     * True when the board state goes to the engine's standard in and the move is read from its standard out instead of the work files.
+     */
+    public boolean usesStdio() {
+        return IO_STDIO.equals(options.get(IO_OPTION));
+    }
+
+    /**
+     * True when the command needs the MOVE_INPUT_FILE & MOVE_OUTPUT_FILE placeholders.
+     */
+    public boolean usesWorkFiles() {
+        return !usesWorkerPool() && !usesStdio() && !usesInProcessEngine();
+    }
+
+    public boolean usesCache() {
+        return !CACHE_OFF.equals(options.get(CACHE_OPTION));
+    }
+
+    /**
+     * The directory for the work files, or null for the current directory.
+     */
+    public File getWorkDir() {
+        String workDir = options.get(WORK_DIR_OPTION);
+        if (workDir == null) return null;
+        if (WORK_DIR_RAM.equals(workDir)) {
+            File shm = new File("/dev/shm");
+            return new File(shm.isDirectory() ? shm.getPath() : System.getProperty("java.io.tmpdir"), "morris-client-wrapper");
+        }
+        return new File(workDir);
+    }
+
+    private long getNumberOption(String name, long defaultValue) {
+        String value = options.get(name);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option '" + name + "' must be a number but was '" + value + "'");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return options.isEmpty() ? commandLine : commandLine + " " + options;
+    }
+}
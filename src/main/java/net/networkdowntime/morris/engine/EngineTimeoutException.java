@@ -0,0 +1,15 @@
+package net.networkdowntime.morris.engine;
+
+/**
+ * The engine didn't answer within its time budget and was stopped.
+ *
+ * @author rwiles
+ *
+ */
+public class EngineTimeoutException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public EngineTimeoutException(String message) {
+        super(message);
+    }
+}
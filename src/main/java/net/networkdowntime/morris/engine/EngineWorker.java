@@ -0,0 +1,99 @@
+package net.networkdowntime.morris.engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.networkdowntime.morris.metrics.Metrics;
+
+/**
+ * A long-lived engine process that speaks the line protocol:
+ *      The wrapper writes the board state followed by a new line to the engine's standard in.
+ *      The engine writes its move followed by a new line to its standard out.
+ * Anything the engine wants to log should go to standard error.
+ *
+ * @author rwiles
+ *
+ */
+class EngineWorker {
+    static final Logger log = LogManager.getLogger(EngineWorker.class);
+
+    // marks the end of the engine's standard out, compared by identity
+    private static final String END_OF_STREAM = new String("END_OF_STREAM");
+
+    private final String name;
+    private final Process process;
+    private final Writer stdin;
+    private final BlockingQueue<String> responses = new LinkedBlockingQueue<String>();
+
+    EngineWorker(String name, List<String> command) throws IOException {
+        this.name = name;
+        long startTime = System.nanoTime();
+        this.process = new ProcessBuilder(command).start();
+        Metrics.PROCESS_SPAWN.observeNanos(System.nanoTime() - startTime);
+        this.stdin = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+
+        startReader(name + "-stdout", process.getInputStream(), true);
+        startReader(name + "-stderr", process.getErrorStream(), false);
+        log.info("Started engine worker " + name + ": " + command);
+    }
+
+    String nextMove(String boardState, long timeoutMillis) throws Exception {
+        responses.clear();
+        long startTime = System.nanoTime();
+        stdin.write(boardState);
+        stdin.write('\n');
+        stdin.flush();
+        long writtenTime = System.nanoTime();
+        Metrics.INPUT_WRITE.observeNanos(writtenTime - startTime);
+
+        String response = responses.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        Metrics.ENGINE_RUN.observeNanos(System.nanoTime() - writtenTime);
+        if (response == null) throw new EngineTimeoutException("Engine worker " + name + " did not answer within " + timeoutMillis + "ms");
+        if (response == END_OF_STREAM) throw new Exception("Engine worker " + name + " closed its standard out");
+        return response.trim();
+    }
+
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    void destroy() {
+        try {
+            stdin.close();
+        } catch (IOException e) {}
+        ProcessTree.kill(process);
+        log.info("Stopped engine worker " + name);
+    }
+
+    private void startReader(String threadName, final InputStream in, final boolean isResponseStream) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (isResponseStream) responses.add(line);
+                        else log.debug(name + ": " + line);
+                    }
+                } catch (IOException e) {
+                    log.debug(name + ": " + e.getMessage());
+                }
+                if (isResponseStream) responses.add(END_OF_STREAM);
+            }
+        }, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
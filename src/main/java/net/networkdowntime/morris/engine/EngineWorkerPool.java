@@ -0,0 +1,113 @@
+package net.networkdowntime.morris.engine;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.networkdowntime.morris.metrics.Metrics;
+
+/**
+ * Keeps a fixed number of long-lived engine processes for a command so a move doesn't pay for process and JVM startup.
+ * Workers are started on first use and replaced when they crash, hang or return garbage.
+ *
+ * @author rwiles
+ *
+ */
+public class EngineWorkerPool {
+    static final Logger log = LogManager.getLogger(EngineWorkerPool.class);
+
+    private static final ConcurrentMap<String, EngineWorkerPool> pools = new ConcurrentHashMap<String, EngineWorkerPool>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (EngineWorkerPool pool : pools.values())
+                    pool.shutdown();
+            }
+        }, "engine-worker-shutdown"));
+    }
+
+    private final EngineCommand command;
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<EngineWorker> idleWorkers = new ConcurrentLinkedQueue<EngineWorker>();
+    private final AtomicInteger workerCount = new AtomicInteger();
+
+    private EngineWorkerPool(EngineCommand command) {
+        this.command = command;
+        this.permits = new Semaphore(command.getWorkerCount(), true);
+    }
+
+    public static EngineWorkerPool forCommand(EngineCommand command) {
+        EngineWorkerPool pool = pools.get(command.toString());
+        if (pool == null) {
+            EngineWorkerPool newPool = new EngineWorkerPool(command);
+            pool = pools.putIfAbsent(command.toString(), newPool);
+            if (pool == null) pool = newPool;
+        }
+        return pool;
+    }
+
+    /**
+     * Starts all of the pool's workers now instead of on the first moves.
+     */
+    public void prestart() throws Exception {
+        for (int i = idleWorkers.size(); i < command.getWorkerCount(); i++)
+            idleWorkers.add(newWorker());
+    }
+
+    public String nextMove(String boardState) throws Exception {
+        return nextMove(boardState, command.getTimeout());
+    }
+
+    /**
+     * @param budgetMillis how long waiting for a free worker and the worker's answer may take together, 0 for no limit
+     * @throws EngineTimeoutException if no worker was free or the worker didn't answer in time; a late worker is killed
+     */
+    public String nextMove(String boardState, long budgetMillis) throws Exception {
+        long startTime = System.nanoTime();
+        if (budgetMillis <= 0) permits.acquire();
+        else if (!permits.tryAcquire(budgetMillis, TimeUnit.MILLISECONDS)) throw new EngineTimeoutException("No engine worker for '" + command.getCommandLine() + "' was free within " + budgetMillis + "ms");
+        EngineWorker worker = null;
+        try {
+            worker = idleWorkers.poll();
+            while (worker != null && !worker.isAlive()) {
+                log.warn("Engine worker for '" + command.getCommandLine() + "' exited, replacing it");
+                worker.destroy();
+                worker = idleWorkers.poll();
+            }
+            if (worker == null) worker = newWorker();
+
+            long timeout = command.getWorkerTimeout();
+            if (budgetMillis > 0) timeout = Math.min(timeout, Math.max(1, budgetMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+            String nextMove = worker.nextMove(boardState, timeout);
+            if (nextMove.length() != boardState.length()) {
+                Metrics.INVALID_OUTPUT_LENGTH.increment();
+                throw new Exception("Engine worker answered '" + nextMove + "', expected a " + boardState.length() + " character board state");
+            }
+
+            idleWorkers.add(worker);
+            worker = null;
+            return nextMove;
+        } finally {
+            if (worker != null) worker.destroy(); // the worker failed, the next move starts a fresh one
+            permits.release();
+        }
+    }
+
+    public void shutdown() {
+        EngineWorker worker;
+        while ((worker = idleWorkers.poll()) != null)
+            worker.destroy();
+    }
+
+    private EngineWorker newWorker() throws Exception {
+        return new EngineWorker("engine-worker-" + workerCount.incrementAndGet(), command.getCommandTokens());
+    }
+}
@@ -0,0 +1,154 @@
+package net.networkdowntime.morris.engine;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.networkdowntime.morris.metrics.Metrics;
+import net.networkdowntime.morris.scheduling.TimerWheel;
+
+/**
+ * Runs MoveEngine implementations loaded from a jar on the calling thread.  Each engine is loaded once, the first time a
+ * command asks for it, and kept for the life of the process.
+ *
+ * @author rwiles
+ *
+ */
+public class InProcessEngine {
+    static final Logger log = LogManager.getLogger(InProcessEngine.class);
+
+    private static final ConcurrentMap<String, MoveEngine> engines = new ConcurrentHashMap<String, MoveEngine>(); // by class path and name
+
+    /**
+     * @param budgetMillis how long the engine may search before its thread is interrupted, 0 for no limit
+     * @throws EngineTimeoutException if the engine was interrupted and didn't answer
+     */
+    public static String nextMove(EngineCommand engineCommand, String boardState, MoveEngine.Phase phase, long budgetMillis) throws Exception {
+        MoveEngine engine = getEngine(engineCommand);
+        List<String> tokens = engineCommand.getCommandTokens();
+        List<String> parameters = tokens.subList(1, tokens.size());
+
+        Interrupter interrupter = new Interrupter();
+        TimerWheel.Timeout timeout = budgetMillis > 0 ? TimerWheel.shared().schedule(interrupter, budgetMillis) : null;
+        long startTime = System.nanoTime();
+        String nextMove = null;
+        Exception failure = null;
+        try {
+            nextMove = engine.nextMove(boardState, phase, parameters);
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            if (timeout != null) timeout.cancel();
+        }
+        boolean interrupted = interrupter.finish();
+        Metrics.ENGINE_RUN.observeNanos(System.nanoTime() - startTime);
+
+        String name = tokens.get(0);
+        if (nextMove == null && interrupted) throw new EngineTimeoutException("Engine " + name + " did not answer within " + budgetMillis + "ms");
+        if (failure != null) throw failure;
+        if (nextMove == null) throw new Exception("Engine " + name + " did not produce a move");
+
+        nextMove = nextMove.trim();
+        if (nextMove.length() != boardState.length()) {
+            Metrics.INVALID_OUTPUT_LENGTH.increment();
+            throw new Exception("Engine " + name + " answered '" + nextMove + "', expected a " + boardState.length() + " character board state");
+        }
+        if (interrupted) log.info("Engine " + name + " answered after running out of its " + budgetMillis + "ms");
+        return nextMove;
+    }
+
+    /**
+     * Loads the command's engine now instead of on the first move.
+     */
+    public static void preload(EngineCommand engineCommand) throws Exception {
+        getEngine(engineCommand);
+    }
+
+    private static MoveEngine getEngine(EngineCommand engineCommand) throws Exception {
+        String classpath = engineCommand.getEngineClasspath();
+        String name = engineCommand.getCommandTokens().get(0);
+        String key = classpath + " " + name;
+
+        MoveEngine engine = engines.get(key);
+        if (engine == null) {
+            MoveEngine newEngine = load(classpath, name);
+            engine = engines.putIfAbsent(key, newEngine);
+            if (engine == null) engine = newEngine;
+        }
+        return engine;
+    }
+
+    private static MoveEngine load(String classpath, String name) throws Exception {
+        List<URL> urls = new ArrayList<URL>();
+        for (String path : classpath.split(File.pathSeparator)) {
+            File file = new File(path);
+            if (!file.exists()) throw new FileNotFoundException("Engine class path entry " + path + " doesn't exist");
+            urls.add(file.toURI().toURL());
+        }
+
+        List<String> found = new ArrayList<String>();
+        ClassLoader loader = new EngineClassLoader(urls.toArray(new URL[urls.size()]));
+        for (MoveEngine engine : ServiceLoader.load(MoveEngine.class, loader)) {
+            Class<?> engineClass = engine.getClass();
+            if (engineClass.getName().equals(name) || engineClass.getSimpleName().equals(name)) {
+                log.info("Loaded engine " + engineClass.getName() + " from " + classpath);
+                return engine;
+            }
+            found.add(engineClass.getName());
+        }
+        throw new IllegalArgumentException("No MoveEngine named " + name + " in " + classpath + ", found " + found);
+    }
+
+    // interrupts the engine's thread when the budget runs out, unless the engine answered first
+    private static class Interrupter implements Runnable {
+        private final Thread thread = Thread.currentThread();
+        private boolean running = true;
+        private boolean interrupted = false;
+
+        @Override
+        public synchronized void run() {
+            if (!running) return;
+            interrupted = true;
+            thread.interrupt();
+        }
+
+        // whether the budget ran out; the interrupt is cleared so it doesn't reach the thread's next task
+        synchronized boolean finish() {
+            running = false;
+            if (interrupted) Thread.interrupted();
+            return interrupted;
+        }
+    }
+
+    // sees the JDK and the engine's jars, MoveEngine is the only class it takes from the wrapper
+    private static class EngineClassLoader extends URLClassLoader {
+
+        EngineClassLoader(URL[] urls) {
+            super(urls, findPlatformClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith(MoveEngine.class.getName())) return MoveEngine.class.getClassLoader().loadClass(name); // and MoveEngine.Phase
+            return super.loadClass(name, resolve);
+        }
+
+        private static ClassLoader findPlatformClassLoader() {
+            try {
+                // Java 9+, looked up at runtime so the wrapper still runs on Java 8
+                return (ClassLoader) ClassLoader.class.getMethod("getPlatformClassLoader").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return null; // on Java 8 the boot class loader has the whole JDK
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package net.networkdowntime.morris.engine;
+
+import java.util.List;
+
+/**
+ * An engine that runs inside the wrapper's JVM, so its classes stay loaded and JIT compiled from one move to the next instead of
+ * a new JVM starting for every move.
+ *
+ * Implementations are packaged in a jar with a META-INF/services/net.networkdowntime.morris.engine.MoveEngine file that lists
+ * them, and are picked in a command line file with the @engine option, naming the jar and the engine class:
+ *      @engine=my-project.jar
+ *      ABOpening 6
+ * The first word is the class name, simple or fully qualified, the rest are passed to the engine as parameters.
+ *
+ * The jar gets its own class loader that shares nothing with the wrapper but this interface, so an engine can bring its own
+ * libraries.  One instance of an engine serves every game: nextMove is called from several threads at once and should keep a
+ * search's state local to the call.  When the move's time budget runs out the calling thread is interrupted, an engine that
+ * checks Thread.interrupted() may then return the best move it has so far.
+ *
+ * @author rwiles
+ *
+ */
+public interface MoveEngine {
+
+    enum Phase {
+        OPENING, MID_END_GAME
+    }
+
+    /**
+     * @param boardState the board before the move, the engine plays white
+     * @param parameters the words after the engine's name in the command line file
+     * @return the board state after the engine's move
+     */
+    String nextMove(String boardState, Phase phase, List<String> parameters) throws Exception;
+}
@@ -0,0 +1,212 @@
+package net.networkdowntime.morris.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.networkdowntime.morris.Constants;
+import net.networkdowntime.morris.Utils;
+import net.networkdowntime.morris.metrics.Histogram;
+import net.networkdowntime.morris.metrics.Metrics;
+import net.networkdowntime.morris.scheduling.TimerWheel;
+
+/**
+ * Runs a new engine process for every move.  The board state is exchanged either through the MOVE_INPUT_FILE & MOVE_OUTPUT_FILE
+ * work files or, with the "@io=stdio" option, through the engine's standard in and standard out.  An engine that is still running
+ * when its time budget runs out is killed along with any processes it started.
+ *
+ * @author rwiles
+ *
+ */
+public class OneShotEngine {
+    static final Logger log = LogManager.getLogger(OneShotEngine.class);
+
+    private static final AtomicLong workFileSequence = new AtomicLong();
+
+    public static String nextMove(EngineCommand engineCommand, String boardState) throws Exception {
+        return nextMove(engineCommand, boardState, engineCommand.getTimeout());
+    }
+
+    /**
+     * @param budgetMillis how long the engine may run, 0 for no limit
+     * @throws EngineTimeoutException if the engine was killed because it ran out of time
+     */
+    public static String nextMove(EngineCommand engineCommand, String boardState, long budgetMillis) throws Exception {
+        if (engineCommand.usesStdio()) return nextMoveOverStdio(engineCommand, boardState, budgetMillis);
+        else return nextMoveOverFiles(engineCommand, boardState, budgetMillis);
+    }
+
+    private static String nextMoveOverFiles(EngineCommand engineCommand, String boardState, long budgetMillis) throws Exception {
+        // the sequence number keeps concurrent moves started in the same millisecond from sharing files
+        String workFileSuffix = "_" + System.currentTimeMillis() + "_" + workFileSequence.incrementAndGet() + ".txt";
+        String inputFileName = getWorkFileName(engineCommand, Constants.MOVE_INPUT_FILE + workFileSuffix);
+        String outputFileName = getWorkFileName(engineCommand, Constants.MOVE_OUTPUT_FILE + workFileSuffix);
+
+        String command = engineCommand.getCommandLine();
+        command = command.replace(Constants.MOVE_INPUT_FILE, inputFileName);
+        command = command.replace(Constants.MOVE_OUTPUT_FILE, outputFileName);
+
+        long startTime = System.nanoTime();
+        Utils.writeBoardState(inputFileName, boardState, false);
+        startTime = observe(Metrics.INPUT_WRITE, startTime);
+
+        log.info("Running Command: " + command);
+        Process process = Runtime.getRuntime().exec(command);
+        startTime = observe(Metrics.PROCESS_SPAWN, startTime);
+        AtomicBoolean timedOut = new AtomicBoolean();
+        TimerWheel.Timeout watchdog = startWatchdog(process, budgetMillis, timedOut);
+
+        // the engine's output is read while it runs, an engine that logs more than a pipe holds would otherwise block
+        OutputCapture output = OutputCapture.start(process.getInputStream());
+        OutputCapture errors = OutputCapture.start(process.getErrorStream());
+        int exitCode;
+        try {
+            exitCode = process.waitFor();
+        } catch (InterruptedException e) {
+            ProcessTree.kill(process); // the move was cancelled
+            Utils.tryDeletingFiles(inputFileName, outputFileName);
+            throw e;
+        } finally {
+            if (watchdog != null) watchdog.cancel();
+        }
+        startTime = observe(Metrics.ENGINE_RUN, startTime);
+        if (timedOut.get()) {
+            Utils.tryDeletingFiles(inputFileName, outputFileName);
+            throw timeout(engineCommand, budgetMillis);
+        }
+
+        try {
+            if (exitCode == 0) {
+                String nextMove = Utils.getFileAsString(outputFileName);
+                observe(Metrics.OUTPUT_READ, startTime);
+                nextMove = nextMove == null ? "" : nextMove.trim();
+                if (nextMove.length() == boardState.length()) return nextMove;
+
+                log.error("The move output file '" + outputFileName + "' did not contain a valid board state string.");
+                if (nextMove.isEmpty()) log.error("The file was empty.");
+                Metrics.INVALID_OUTPUT_LENGTH.increment();
+                log.error("The move was expected to be " + boardState.length() + " characters but was " + nextMove.length() + " characters.");
+            } else {
+                log.error("Command had a non-zero exit value of: " + exitCode);
+            }
+        } finally {
+            Utils.tryDeletingFiles(inputFileName, outputFileName); // every move has its own files, a failed move's would pile up
+        }
+
+        logOutput(output, errors);
+        throw new Exception("The command did not produce a move");
+    }
+
+    private static String nextMoveOverStdio(EngineCommand engineCommand, String boardState, long budgetMillis) throws Exception {
+        log.info("Running Command: " + engineCommand.getCommandLine());
+        long startTime = System.nanoTime();
+        final Process process = new ProcessBuilder(engineCommand.getCommandTokens()).start();
+        startTime = observe(Metrics.PROCESS_SPAWN, startTime);
+        AtomicBoolean timedOut = new AtomicBoolean();
+        TimerWheel.Timeout watchdog = startWatchdog(process, budgetMillis, timedOut);
+
+        // both streams are read while the engine runs so a chatty engine can't fill a pipe, and so waiting for the engine below
+        // can be interrupted when the move is cancelled
+        OutputCapture output = OutputCapture.start(process.getInputStream());
+        OutputCapture errors = OutputCapture.start(process.getErrorStream());
+
+        List<String> inputLines;
+        int exitCode;
+        try {
+            try (Writer stdin = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8)) {
+                stdin.write(boardState);
+                stdin.write('\n');
+            }
+            startTime = observe(Metrics.INPUT_WRITE, startTime);
+            // the engine answers as it exits, so its run time ends with standard out
+            exitCode = process.waitFor();
+            inputLines = output.awaitLines();
+            observe(Metrics.ENGINE_RUN, startTime);
+        } catch (IOException e) {
+            if (timedOut.get()) throw timeout(engineCommand, budgetMillis); // killing the engine broke its pipes
+            throw e;
+        } catch (InterruptedException e) {
+            ProcessTree.kill(process); // the move was cancelled
+            throw e;
+        } finally {
+            if (watchdog != null) watchdog.cancel();
+        }
+        if (timedOut.get()) throw timeout(engineCommand, budgetMillis);
+
+        if (exitCode == 0) {
+            String nextMove = null;
+            for (String line : inputLines)
+                if (!line.trim().isEmpty()) nextMove = line.trim();
+
+            if (nextMove != null && nextMove.length() == boardState.length()) {
+                return nextMove;
+            } else if (nextMove == null) {
+                log.error("The command did not write a move to standard out.");
+            } else {
+                Metrics.INVALID_OUTPUT_LENGTH.increment();
+                log.error("The move was expected to be " + boardState.length() + " characters but was " + nextMove.length() + " characters.");
+            }
+        } else {
+            log.error("Command had a non-zero exit value of: " + exitCode);
+        }
+
+        logOutput(output, errors);
+        throw new Exception("The command did not produce a move");
+    }
+
+    // kills the engine if it is still running when the budget runs out; null when there is no budget
+    private static TimerWheel.Timeout startWatchdog(final Process process, long budgetMillis, final AtomicBoolean timedOut) {
+        if (budgetMillis <= 0) return null;
+        return TimerWheel.shared().schedule(() -> {
+            if (!process.isAlive()) return;
+            timedOut.set(true);
+            ProcessTree.kill(process);
+        }, budgetMillis);
+    }
+
+    private static EngineTimeoutException timeout(EngineCommand engineCommand, long budgetMillis) {
+        return new EngineTimeoutException("'" + engineCommand.getCommandLine() + "' did not answer within " + budgetMillis + "ms and was killed");
+    }
+
+    // records the time since startTime and returns now, the start of the next stage
+    private static long observe(Histogram histogram, long startTime) {
+        long now = System.nanoTime();
+        histogram.observeNanos(now - startTime);
+        return now;
+    }
+
+    private static String getWorkFileName(EngineCommand engineCommand, String fileName) {
+        File workDir = engineCommand.getWorkDir();
+        if (workDir == null) return fileName;
+        if (!workDir.isDirectory() && !workDir.mkdirs()) log.warn("Unable to create the work directory " + workDir);
+        return new File(workDir, fileName).getPath();
+    }
+
+    // logs the tail of what a failed engine printed
+    private static void logOutput(OutputCapture output, OutputCapture errors) throws InterruptedException {
+        logOutput("Standard Out", output);
+        logOutput("Standard Error", errors);
+    }
+
+    private static void logOutput(String streamName, OutputCapture capture) throws InterruptedException {
+        List<String> lines;
+        try {
+            lines = capture.awaitLines();
+        } catch (IOException e) {
+            log.error("Unable to read " + streamName + ": " + e.getMessage());
+            lines = capture.getLines();
+        }
+        log.error(streamName + " from command execution was " + capture.getLineCount() + " lines" + capture.getTruncation());
+        for (String s : lines) {
+            log.error(s);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package net.networkdowntime.morris.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.networkdowntime.morris.NamedThreadFactory;
+
+/**
+ * Reads an engine process's standard out or standard error while the engine runs, so an engine that logs more than the pipe
+ * holds doesn't block on a full pipe, and keeps only the last lines in a ring buffer, each cut to a maximum length, so a huge log
+ * doesn't end up in memory.
+ *
+ * Reading a pipe blocks a thread until the engine writes, so the readers run on a shared pool that grows with the engines
+ * running and reuses the threads of engines that are done.
+ *
+ * Settings (Java system properties):
+ *      morris.engine.outputLines:      how many of the last lines of each stream are kept (default: 100)
+ *      morris.engine.outputLineLength: how many characters of a line are kept (default: 1000)
+ *
+ * @author rwiles
+ *
+ */
+class OutputCapture {
+    static final Logger log = LogManager.getLogger(OutputCapture.class);
+
+    public static final String LINES_PROPERTY = "morris.engine.outputLines";
+    public static final String LINE_LENGTH_PROPERTY = "morris.engine.outputLineLength";
+
+    private static final int maxLines = Math.max(1, Integer.getInteger(LINES_PROPERTY, 100));
+    private static final int maxLineLength = Math.max(1, Integer.getInteger(LINE_LENGTH_PROPERTY, 1000));
+
+    // how long the rest of the output may take once the engine exited, a process it started may still hold the pipe open
+    private static final long EXIT_GRACE = 1000;
+
+    private static final ExecutorService ioPool = Executors.newCachedThreadPool(new NamedThreadFactory("engine-io"));
+
+    private final InputStream in;
+    private final String[] lines = new String[maxLines];
+    private final CompletableFuture<Void> done = new CompletableFuture<Void>();
+    private long lineCount = 0; // every line read, the ring keeps the last maxLines of them
+    private long truncatedCount = 0;
+
+    private OutputCapture(InputStream in) {
+        this.in = in;
+    }
+
+    static OutputCapture start(InputStream in) {
+        OutputCapture capture = new OutputCapture(in);
+        ioPool.execute(capture::drain);
+        return capture;
+    }
+
+    /**
+     * The last lines of the stream, oldest first, once the stream ended.  Called after the engine exited: a stream still open
+     * after a short grace period is closed and the lines read so far are returned.
+     *
+     * @throws IOException if reading the stream failed
+     */
+    List<String> awaitLines() throws IOException, InterruptedException {
+        try {
+            done.get(EXIT_GRACE, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Engine output still open " + EXIT_GRACE + "ms after the engine exited, a process it started may hold it");
+            in.close();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        return getLines();
+    }
+
+    synchronized List<String> getLines() {
+        int kept = (int) Math.min(lineCount, maxLines);
+        List<String> tail = new ArrayList<String>(kept);
+        for (long i = lineCount - kept; i < lineCount; i++)
+            tail.add(lines[(int) (i % maxLines)]);
+        return tail;
+    }
+
+    /**
+     * How many lines were read, including those no longer kept.
+     */
+    synchronized long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * How many lines were read but are no longer kept, and how many were cut to the maximum length.
+     */
+    synchronized String getTruncation() {
+        List<String> notes = new ArrayList<String>();
+        if (lineCount > maxLines) notes.add("only the last " + maxLines + " kept");
+        if (truncatedCount > 0) notes.add(truncatedCount + " cut to " + maxLineLength + " characters");
+        return notes.isEmpty() ? "" : " (" + String.join(", ", notes) + ")";
+    }
+
+    private void drain() {
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            char[] buffer = new char[8192];
+            StringBuilder line = new StringBuilder();
+            boolean truncated = false;
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    char c = buffer[i];
+                    if (c == '\n') {
+                        addLine(line, truncated);
+                        line.setLength(0);
+                        truncated = false;
+                    } else if (line.length() < maxLineLength) {
+                        line.append(c);
+                    } else {
+                        truncated = true;
+                    }
+                }
+            }
+            if (line.length() > 0 || truncated) addLine(line, truncated);
+            done.complete(null);
+        } catch (IOException e) {
+            done.completeExceptionally(e);
+        }
+    }
+
+    private synchronized void addLine(StringBuilder line, boolean truncated) {
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') length--;
+        lines[(int) (lineCount % maxLines)] = line.substring(0, length);
+        lineCount++;
+        if (truncated) truncatedCount++;
+    }
+}
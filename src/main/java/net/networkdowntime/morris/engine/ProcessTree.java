@@ -0,0 +1,56 @@
+package net.networkdowntime.morris.engine;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Kills an engine process together with the processes it started, so a search that ran out of time can't keep going in a child
+ * process such as the JVM behind a launcher script.  Child processes are only found on Java 9 and later, on Java 8 only the
+ * engine process itself is killed.
+ *
+ * @author rwiles
+ *
+ */
+class ProcessTree {
+    static final Logger log = LogManager.getLogger(ProcessTree.class);
+
+    // Java 9+, looked up at runtime so the wrapper still runs on Java 8
+    private static final Method descendants = findMethod("java.lang.Process", "descendants");
+    private static final Method destroyForcibly = findMethod("java.lang.ProcessHandle", "destroyForcibly");
+
+    static void kill(Process process) {
+        List<?> children = getDescendants(process); // found before the parent dies and its children are handed to init
+        process.destroyForcibly();
+        for (Object child : children) {
+            try {
+                destroyForcibly.invoke(child);
+            } catch (ReflectiveOperationException e) {
+                log.debug("Unable to kill an engine child process: " + e.getMessage());
+            }
+        }
+    }
+
+    private static List<?> getDescendants(Process process) {
+        if (descendants == null || destroyForcibly == null) return Collections.emptyList();
+        try {
+            return ((Stream<?>) descendants.invoke(process)).collect(Collectors.toList());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Unable to list the engine's child processes: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    private static Method findMethod(String className, String methodName) {
+        try {
+            return Class.forName(className).getMethod(methodName);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package net.networkdowntime.morris.http;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
+
+/**
+ * GET requests that send the ETag and Last-Modified validators from the previous response to the same URL, so an unchanged
+ * resource comes back as a body-less 304.  Servers that don't send validators get plain GETs.  Requests go through the shared
+ * HttpTransport.
+ *
+ * @author rwiles
+ *
+ */
+public class ConditionalGet {
+    private final HttpTransport transport;
+    private final CookieStore cookieStore;
+    private final Map<String, Validators> validators = new ConcurrentHashMap<String, Validators>();
+
+    public ConditionalGet(HttpTransport transport, CookieStore cookieStore) {
+        this.transport = transport;
+        this.cookieStore = cookieStore;
+    }
+
+    public <T> Result<T> get(String url, HttpTransport.BodyDecoder<T> decoder) throws Exception {
+        return HttpTransport.await(getAsync(url, decoder));
+    }
+
+    /**
+     * GETs the url and decodes the body.  Responses without validators are decoded straight from the connection; responses with
+     * validators are kept as bytes so a later 304 can be decoded again.
+     */
+    public <T> CompletableFuture<Result<T>> getAsync(final String url, final HttpTransport.BodyDecoder<T> decoder) {
+        HttpGet get = new HttpGet(url);
+        get.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+
+        final Validators previous = validators.get(url);
+        if (previous != null) {
+            if (previous.etag != null) get.setHeader(HttpHeaders.IF_NONE_MATCH, previous.etag);
+            if (previous.lastModified != null) get.setHeader(HttpHeaders.IF_MODIFIED_SINCE, previous.lastModified);
+        }
+
+        return transport.send(get, cookieStore, (response, body) -> {
+            if (response.status == HttpStatus.SC_NOT_MODIFIED && previous != null) return new Result<T>(decoder.decode(new ByteArrayInputStream(previous.body)), false);
+            if (response.status >= 300) throw new HttpTransport.HttpError(response.status, response.reason);
+
+            String etag = response.getHeader(HttpHeaders.ETAG);
+            String lastModified = response.getHeader(HttpHeaders.LAST_MODIFIED);
+            if (etag == null && lastModified == null) {
+                validators.remove(url);
+                return new Result<T>(decoder.decode(body), true);
+            }
+
+            byte[] bytes = HttpTransport.readFully(body);
+            validators.put(url, new Validators(etag, lastModified, bytes));
+            return new Result<T>(decoder.decode(new ByteArrayInputStream(bytes)), true);
+        });
+    }
+
+    public static class Result<T> {
+        public final T value;
+        /** false when the server answered 304 and the value was decoded from the previous response */
+        public final boolean modified;
+
+        Result(T value, boolean modified) {
+            this.value = value;
+            this.modified = modified;
+        }
+    }
+
+    private static class Validators {
+        final String etag;
+        final String lastModified;
+        final byte[] body;
+
+        Validators(String etag, String lastModified, byte[] body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+}
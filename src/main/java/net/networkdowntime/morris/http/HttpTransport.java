@@ -0,0 +1,344 @@
+package net.networkdowntime.morris.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.networkdowntime.morris.NamedThreadFactory;
+import net.networkdowntime.morris.metrics.Histogram;
+import net.networkdowntime.morris.metrics.Metrics;
+
+/**
+ * Sends requests to the game server over one pool of keep-alive connections, so polls reuse an open (TLS) connection instead
+ * of connecting for every request.  Requests run on a small I/O pool and complete a CompletableFuture, so callers can overlap
+ * polling, joining and move submission.  Cookies stay per account: every request takes the account's CookieStore.
+ *
+ * Latency is tracked per endpoint (method and path) and is available from getEndpointStats().
+ *
+ * Settings (Java system properties):
+ *      morris.http.maxConnections:    how many connections the pool keeps open to the server (default: 200)
+ *      morris.http.connectTimeout:    milliseconds to wait for a connection to be established (default: 5000)
+ *      morris.http.socketTimeout:     milliseconds to wait for data on an open connection (default: 30000)
+ *      morris.http.poolTimeout:       milliseconds to wait for a free connection from the pool (default: 10000)
+ *      morris.http.idleTimeout:       milliseconds an unused connection is kept open (default: 60000)
+ *
+ * @author rwiles
+ *
+ */
+public class HttpTransport {
+    static final Logger log = LogManager.getLogger(HttpTransport.class);
+
+    public static final String MAX_CONNECTIONS_PROPERTY = "morris.http.maxConnections";
+    public static final String CONNECT_TIMEOUT_PROPERTY = "morris.http.connectTimeout";
+    public static final String SOCKET_TIMEOUT_PROPERTY = "morris.http.socketTimeout";
+    public static final String POOL_TIMEOUT_PROPERTY = "morris.http.poolTimeout";
+    public static final String IDLE_TIMEOUT_PROPERTY = "morris.http.idleTimeout";
+
+    private static final HttpTransport shared = new HttpTransport();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final RequestConfig requestConfig;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, EndpointStats> endpointStats = new ConcurrentHashMap<String, EndpointStats>();
+
+    private HttpTransport() {
+        int maxConnections = Math.max(2, Integer.getInteger(MAX_CONNECTIONS_PROPERTY, 200));
+        long idleTimeout = Long.getLong(IDLE_TIMEOUT_PROPERTY, 60 * 1000);
+
+        connectionManager = new PoolingHttpClientConnectionManager(idleTimeout, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        connectionManager.setValidateAfterInactivity(2 * 1000);
+
+        requestConfig = RequestConfig.custom() //
+                .setConnectTimeout(Integer.getInteger(CONNECT_TIMEOUT_PROPERTY, 5 * 1000)) //
+                .setSocketTimeout(Integer.getInteger(SOCKET_TIMEOUT_PROPERTY, 30 * 1000)) //
+                .setConnectionRequestTimeout(Integer.getInteger(POOL_TIMEOUT_PROPERTY, 10 * 1000)) //
+                .build();
+
+        httpClient = HttpClients.custom() //
+                .setConnectionManager(connectionManager) //
+                .setDefaultRequestConfig(requestConfig) //
+                .evictExpiredConnections() //
+                .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS) //
+                .build();
+
+        // one thread per connection at most, a request never waits on a thread while a connection is free
+        executor = new ThreadPoolExecutor(maxConnections, maxConnections, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("http-io"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * The timeouts every request gets, for a request that needs other timeouts to start from with RequestConfig.copy().
+     */
+    public RequestConfig getRequestConfig() {
+        return requestConfig;
+    }
+
+    public static HttpTransport shared() {
+        return shared;
+    }
+
+    /**
+     * GETs the url, completing with the response body.  Fails with an HttpError if the server doesn't answer 2xx.
+     */
+    public CompletableFuture<String> get(String url, CookieStore cookieStore) {
+        HttpGet get = new HttpGet(url);
+        get.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+        return send(get, cookieStore).thenApply(HttpTransport::bodyOrError);
+    }
+
+    /**
+     * POSTs the request object as JSON, completing with the response body.  Fails with an HttpError if the server
+     * doesn't answer 2xx.
+     */
+    public CompletableFuture<String> postJson(String url, Object request, CookieStore cookieStore) {
+        HttpPost post = new HttpPost(url);
+        try {
+            post.setEntity(new StringEntity(objectMapper.writeValueAsString(request), ContentType.APPLICATION_JSON));
+        } catch (Exception e) {
+            CompletableFuture<String> failed = new CompletableFuture<String>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return send(post, cookieStore).thenApply(HttpTransport::bodyOrError);
+    }
+
+    /**
+     * GETs the url and decodes the response body straight from the connection, without buffering it first.  Fails with an
+     * HttpError if the server doesn't answer 2xx.
+     */
+    public <T> CompletableFuture<T> get(String url, CookieStore cookieStore, final BodyDecoder<T> decoder) {
+        HttpGet get = new HttpGet(url);
+        get.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+        return send(get, cookieStore, (response, body) -> {
+            if (response.status >= 300) throw new HttpError(response.status, response.reason);
+            return decoder.decode(body);
+        });
+    }
+
+    /**
+     * Sends the request as is, completing with whatever the server answered.
+     */
+    public CompletableFuture<Response> send(HttpRequestBase request, CookieStore cookieStore) {
+        return send(request, cookieStore, (response, body) -> response.withBody(body == null ? null : new String(readFully(body), StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Sends the request as is and hands the response to the reader while the connection is still open.  Whatever the reader
+     * leaves unread is drained so the connection can be reused.
+     */
+    public <T> CompletableFuture<T> send(final HttpRequestBase request, final CookieStore cookieStore, final ResponseReader<T> reader) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        final EndpointStats stats = statsFor(request);
+        executor.execute(() -> {
+            long startTime = System.nanoTime();
+            HttpClientContext context = HttpClientContext.create();
+            context.setCookieStore(cookieStore);
+            try (CloseableHttpResponse response = httpClient.execute(request, context)) {
+                Response head = new Response(response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase(), response.getAllHeaders(), null);
+                T result;
+                HttpEntity entity = response.getEntity();
+                try (InputStream body = entity == null ? null : entity.getContent()) {
+                    result = reader.read(head, body);
+                }
+                stats.record(System.nanoTime() - startTime, head.status >= 400);
+                future.complete(result);
+            } catch (Throwable t) {
+                stats.record(System.nanoTime() - startTime, true);
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Waits for a request sent by this transport, rethrowing what it failed with.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Latency per endpoint, keyed by method and path, sorted by key.
+     */
+    public Map<String, EndpointStats> getEndpointStats() {
+        return Collections.unmodifiableMap(new TreeMap<String, EndpointStats>(endpointStats));
+    }
+
+    public int getLeasedConnections() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    public int getIdleConnections() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    public static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+
+    private EndpointStats statsFor(HttpRequestBase request) {
+        URI uri = request.getURI();
+        String endpoint = request.getMethod() + " " + (uri.getPath() == null || uri.getPath().isEmpty() ? "/" : uri.getPath());
+        EndpointStats stats = endpointStats.get(endpoint);
+        if (stats == null) {
+            endpointStats.putIfAbsent(endpoint, new EndpointStats(Metrics.SERVER_ROUND_TRIP.labels(endpoint)));
+            stats = endpointStats.get(endpoint);
+        }
+        return stats;
+    }
+
+    private static String bodyOrError(Response response) {
+        if (response.status >= 300) {
+            log.debug("Server answered " + response.status + ": " + response.body);
+            throw new HttpError(response.status, response.reason);
+        }
+        return response.body;
+    }
+
+    /**
+     * Turns a response body into a value, reading it from the open connection.
+     */
+    public interface BodyDecoder<T> {
+        T decode(InputStream body) throws IOException;
+    }
+
+    /**
+     * Turns a response into a value; the body is null if the response has none.
+     */
+    public interface ResponseReader<T> {
+        T read(Response response, InputStream body) throws IOException;
+    }
+
+    /**
+     * The server answered with a status other than 2xx.
+     */
+    public static class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final int status;
+
+        public HttpError(int status, String reason) {
+            super(status + " " + reason);
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    public static class Response {
+        public final int status;
+        public final String reason;
+        public final String body;
+        private final Header[] headers;
+
+        Response(int status, String reason, Header[] headers, String body) {
+            this.status = status;
+            this.reason = reason;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        Response withBody(String body) {
+            return new Response(status, reason, headers, body);
+        }
+
+        /** The first header with this name, or null */
+        public String getHeader(String name) {
+            for (Header header : headers)
+                if (header.getName().equalsIgnoreCase(name)) return header.getValue();
+            return null;
+        }
+    }
+
+    public static class EndpointStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final AtomicLong maxMicros = new AtomicLong();
+        private final Histogram.Series roundTrips;
+
+        EndpointStats(Histogram.Series roundTrips) {
+            this.roundTrips = roundTrips;
+        }
+
+        void record(long nanos, boolean error) {
+            roundTrips.observeNanos(nanos);
+            long micros = nanos / 1000;
+            count.increment();
+            if (error) errors.increment();
+            totalMicros.add(micros);
+            long max;
+            while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros));
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getErrorCount() {
+            return errors.sum();
+        }
+
+        public double getAverageMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalMicros.sum() / 1000.0 / n;
+        }
+
+        public double getMaxMillis() {
+            return maxMicros.get() / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d errors, avg %.1fms, max %.1fms", getCount(), getErrorCount(), getAverageMillis(), getMaxMillis());
+        }
+    }
+}
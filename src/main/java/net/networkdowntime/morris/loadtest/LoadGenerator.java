@@ -0,0 +1,194 @@
+package net.networkdowntime.morris.loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.networkdowntime.morris.Constants;
+import net.networkdowntime.morris.NamedThreadFactory;
+import net.networkdowntime.morris.board.Bitboard;
+import net.networkdowntime.morris.board.BoardLayout;
+import net.networkdowntime.morris.board.MoveGenerator;
+import net.networkdowntime.morris.http.HttpTransport;
+import net.networkdowntime.morris.metrics.LatencyRecorder;
+
+/**
+ * Fires processMove requests at a Mode 1 wrapper from a fixed number of concurrent clients, each sending its next request as soon
+ * as the last one is answered, and reports throughput, latency percentiles and error rates.  The positions are reached by random
+ * legal play from the empty board, so the engine sees opening, middle and end game boards.  Nothing but the wrapper under test is
+ * needed, so it runs offline.
+ *
+ * Requests go through the shared HttpTransport, so more clients than morris.http.maxConnections wait for a connection.
+ *
+ * Settings (Java system properties):
+ *      morris.load.moveTimeout:    milliseconds sent in X-Move-Timeout, 0 to leave the deadline to the wrapper (default: 0)
+ *      morris.load.positions:      how many different positions are sent (default: 1000)
+ *      morris.load.reportInterval: seconds between progress reports (default: 10)
+ *
+ * @author rwiles
+ *
+ */
+public class LoadGenerator {
+    static final Logger log = LogManager.getLogger(LoadGenerator.class);
+
+    public static final String MOVE_TIMEOUT_PROPERTY = "morris.load.moveTimeout";
+    public static final String POSITIONS_PROPERTY = "morris.load.positions";
+    public static final String REPORT_INTERVAL_PROPERTY = "morris.load.reportInterval";
+
+    private static final long moveTimeout = Math.max(0, Long.getLong(MOVE_TIMEOUT_PROPERTY, 0));
+    private static final int positionCount = Math.max(1, Integer.getInteger(POSITIONS_PROPERTY, 1000));
+    private static final long reportInterval = Math.max(1, Long.getLong(REPORT_INTERVAL_PROPERTY, 10));
+
+    private static final String PROCESS_MOVE_ENDPOINT = "/api/clientWrapper/processMove";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpTransport transport = HttpTransport.shared();
+    private final CookieStore cookieStore = new BasicCookieStore();
+    private final String url;
+    private final int concurrency;
+    private final long durationMillis;
+    private final List<byte[]> positions;
+    private final List<Integer> boardLengths;
+
+    private final LongAdder answered = new LongAdder();
+    private final LongAdder shed = new LongAdder(); // 503, turned away or out of time
+    private final LongAdder serverErrors = new LongAdder();
+    private final LongAdder otherStatus = new LongAdder();
+    private final LongAdder badAnswers = new LongAdder(); // 200 but not a board state of the right length
+    private final LongAdder failed = new LongAdder(); // no response at all
+    private final LatencyRecorder answerTimes = new LatencyRecorder();
+    private final LatencyRecorder errorTimes = new LatencyRecorder();
+
+    public LoadGenerator(BoardLayout layout, String server, int concurrency, long durationSeconds) throws Exception {
+        this.url = (server.endsWith("/") ? server.substring(0, server.length() - 1) : server) + PROCESS_MOVE_ENDPOINT;
+        this.concurrency = concurrency;
+        this.durationMillis = durationSeconds * 1000;
+        this.positions = new ArrayList<byte[]>(positionCount);
+        this.boardLengths = new ArrayList<Integer>(positionCount);
+        createPositions(layout);
+    }
+
+    public void run() throws Exception {
+        System.out.println("Sending processMove requests to " + url + " from " + concurrency + " clients for " + durationMillis / 1000 + "s");
+        final long endTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency, new NamedThreadFactory("load"));
+        for (int i = 0; i < concurrency; i++)
+            clients.execute(() -> {
+                while (System.nanoTime() - endTime < 0)
+                    sendMove();
+            });
+        clients.shutdown();
+
+        long startTime = System.nanoTime();
+        long lastCount = 0;
+        while (!clients.awaitTermination(reportInterval, TimeUnit.SECONDS)) {
+            long count = getCompleted();
+            System.out.println(String.format("  %ds: %d requests, %.1f/s", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime), count, (count - lastCount) / (double) reportInterval));
+            lastCount = count;
+        }
+        report(System.nanoTime() - startTime);
+    }
+
+    private void sendMove() {
+        int index = ThreadLocalRandom.current().nextInt(positions.size());
+        HttpPost post = new HttpPost(url);
+        post.setEntity(new ByteArrayEntity(positions.get(index), ContentType.APPLICATION_JSON));
+        if (moveTimeout > 0) post.setHeader(Constants.MOVE_TIMEOUT_HEADER, Long.toString(moveTimeout));
+
+        long startTime = System.nanoTime();
+        try {
+            HttpTransport.Response response = HttpTransport.await(transport.send(post, cookieStore));
+            long elapsed = System.nanoTime() - startTime;
+            if (response.status == 200) {
+                String move = response.body == null ? "" : response.body.trim();
+                if (move.length() == boardLengths.get(index)) answered.increment();
+                else badAnswers.increment();
+                answerTimes.recordNanos(elapsed);
+                return;
+            }
+            if (response.status == 503) shed.increment();
+            else if (response.status >= 500) serverErrors.increment();
+            else otherStatus.increment();
+            errorTimes.recordNanos(elapsed);
+        } catch (Exception e) {
+            failed.increment();
+            errorTimes.recordNanos(System.nanoTime() - startTime);
+            log.debug("Request failed: " + e.getMessage());
+        }
+    }
+
+    private long getCompleted() {
+        return answered.sum() + badAnswers.sum() + shed.sum() + serverErrors.sum() + otherStatus.sum() + failed.sum();
+    }
+
+    private void report(long elapsedNanos) {
+        long total = getCompleted();
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.println("Load test of " + url + ": " + concurrency + " clients, " + String.format("%.1f", seconds) + "s");
+        System.out.println(String.format("  Requests:     %d (%.1f/s), answered with a move: %d (%.1f/s)", total, total / seconds, answered.sum(), answered.sum() / seconds));
+        System.out.println("  Answer time:  " + answerTimes.snapshot(false));
+        System.out.println("  Error time:   " + errorTimes.snapshot(false));
+        System.out.println("  Errors:       " + rate("503 (shed or out of time)", shed.sum(), total) + "; " + rate("other 5xx", serverErrors.sum(), total) + "; " //
+                + rate("other status", otherStatus.sum(), total) + "; " + rate("no response", failed.sum(), total) + "; " + rate("bad answers", badAnswers.sum(), total));
+    }
+
+    private static String rate(String label, long count, long total) {
+        return String.format("%s %d (%.2f%%)", label, count, total == 0 ? 0 : count * 100.0 / total);
+    }
+
+    // random legal games from the empty board, keeping a position with white to move from each game, seeded so runs compare
+    private void createPositions(BoardLayout layout) throws Exception {
+        Random random = new Random(positionCount);
+        char[] empty = new char[layout.getPositionCount()];
+        Arrays.fill(empty, Constants.EMPTY);
+
+        while (positions.size() < positionCount) {
+            String board = new String(empty);
+            int[] unplayed = { layout.getPiecesPerPlayer(), layout.getPiecesPerPlayer() };
+            int moves = random.nextInt(4 * layout.getPiecesPerPlayer());
+            int movesMade = 0;
+
+            boolean stuck = false;
+            for (; movesMade < moves && !stuck; movesMade++) {
+                int side = movesMade % 2;
+                char player = side == 0 ? Constants.WHITE : Constants.BLACK;
+                char opponent = side == 0 ? Constants.BLACK : Constants.WHITE;
+                Bitboard position = Bitboard.parse(board);
+                List<Bitboard> legal = unplayed[side] > 0 ? MoveGenerator.getPlacements(layout, position, player, opponent) : MoveGenerator.getSlides(layout, position, player, opponent);
+                if (legal.isEmpty()) stuck = true;
+                else board = legal.get(random.nextInt(legal.size())).toString();
+                unplayed[side] = Math.max(0, unplayed[side] - 1);
+            }
+            if (stuck || movesMade % 2 != 0) continue; // white has to be the one to move, and have a move
+
+            Map<String, Object> gameState = new LinkedHashMap<String, Object>();
+            gameState.put("id", positions.size() + 1);
+            gameState.put("currentBoardState", board);
+            gameState.put("numberOfMovesMade", movesMade);
+            gameState.put("isPlayerOnesTurn", true);
+            gameState.put("playerOneUnplayedPieceCount", unplayed[0]);
+            gameState.put("playerTwoUnplayedPieceCount", unplayed[1]);
+            positions.add(objectMapper.writeValueAsBytes(gameState));
+            boardLengths.add(board.length());
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package net.networkdowntime.morris.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import net.networkdowntime.morris.Constants;
+import net.networkdowntime.morris.NamedThreadFactory;
+import net.networkdowntime.morris.board.Bitboard;
+import net.networkdowntime.morris.board.BoardLayout;
+import net.networkdowntime.morris.board.LegalMovePicker;
+import net.networkdowntime.morris.board.MoveGenerator;
+import net.networkdowntime.morris.metrics.LatencyRecorder;
+
+/**
+ * A local stand-in for the game server, so Mode 2 and the accounts mode can be load tested offline.  It serves the endpoints
+ * ModeTwoRunner uses, keeps games in memory and plays the other side of every game with simulated opponents that pick a legal
+ * move (a capture when there is one) after a short delay.  Any username and password logs in.
+ *
+ * Simulated opponents keep a few open games available to join and join the games the wrapper creates.  Player one plays white.
+ * A game ends when the player to move is down to two pieces or can't move, or as a draw after morris.standin.maxMoves.  Moves
+ * that aren't legal are rejected with a 400.  Every report interval the server prints the games played, the moves accepted and
+ * rejected, and the turn time: how long the wrapper took from the opponent's move to its own.
+ *
+ * Settings (Java system properties):
+ *      morris.standin.opponentDelay:  average milliseconds a simulated opponent takes to move (default: 200)
+ *      morris.standin.joinDelay:      milliseconds before a simulated opponent joins a new game (default: 1000)
+ *      morris.standin.openGames:      how many open games the simulated opponents keep available (default: 5)
+ *      morris.standin.maxMoves:       how many moves are made before a game ends in a draw (default: 200)
+ *      morris.standin.reportInterval: seconds between reports (default: 10)
+ *      morris.standin.threads:        how many requests are served at the same time (default: 16)
+ *
+ * @author rwiles
+ *
+ */
+public class StandInServer {
+    static final Logger log = LogManager.getLogger(StandInServer.class);
+
+    public static final String OPPONENT_DELAY_PROPERTY = "morris.standin.opponentDelay";
+    public static final String JOIN_DELAY_PROPERTY = "morris.standin.joinDelay";
+    public static final String OPEN_GAMES_PROPERTY = "morris.standin.openGames";
+    public static final String MAX_MOVES_PROPERTY = "morris.standin.maxMoves";
+    public static final String REPORT_INTERVAL_PROPERTY = "morris.standin.reportInterval";
+    public static final String THREADS_PROPERTY = "morris.standin.threads";
+
+    private static final long opponentDelay = Math.max(0, Long.getLong(OPPONENT_DELAY_PROPERTY, 200));
+    private static final long joinDelay = Math.max(0, Long.getLong(JOIN_DELAY_PROPERTY, 1000));
+    private static final int openGames = Math.max(0, Integer.getInteger(OPEN_GAMES_PROPERTY, 5));
+    private static final int maxMoves = Math.max(1, Integer.getInteger(MAX_MOVES_PROPERTY, 200));
+    private static final long reportInterval = Math.max(1, Long.getLong(REPORT_INTERVAL_PROPERTY, 10));
+    private static final int threads = Math.max(1, Integer.getInteger(THREADS_PROPERTY, 16));
+
+    private static final String SESSION_COOKIE = "STANDIN_SESSION";
+    private static final String JSON = "application/json;charset=UTF-8";
+    private static final String OPPONENT_PREFIX = "standin-opponent-";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BoardLayout layout;
+    private final String emptyBoard;
+    private final ScheduledExecutorService opponents = Executors.newScheduledThreadPool(2, new NamedThreadFactory("standin-opponent"));
+
+    private final Map<String, String> sessions = new ConcurrentHashMap<String, String>(); // username by session id
+    private final Map<Long, Game> games = new ConcurrentHashMap<Long, Game>();
+    private final AtomicLong gameIds = new AtomicLong();
+    private final AtomicLong opponentNames = new AtomicLong();
+
+    private final LongAdder gamesStarted = new LongAdder();
+    private final LongAdder wins = new LongAdder();
+    private final LongAdder losses = new LongAdder();
+    private final LongAdder draws = new LongAdder();
+    private final LongAdder movesAccepted = new LongAdder();
+    private final LongAdder movesRejected = new LongAdder();
+    private final LatencyRecorder turnTimes = new LatencyRecorder();
+
+    public StandInServer(BoardLayout layout) {
+        this.layout = layout;
+        char[] board = new char[layout.getPositionCount()];
+        Arrays.fill(board, Constants.EMPTY);
+        this.emptyBoard = new String(board);
+    }
+
+    public void start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/api/user/login", exchange -> handle(exchange, this::login));
+        server.createContext("/api/game/availableGameBoards", exchange -> handle(exchange, this::gameBoards));
+        server.createContext("/api/game/availableOpenGames", exchange -> handle(exchange, this::availableOpenGames));
+        server.createContext("/api/game/myOpenGames", exchange -> handle(exchange, this::myOpenGames));
+        server.createContext("/api/game/myActiveGames", exchange -> handle(exchange, this::myActiveGames));
+        server.createContext("/api/game/newGame", exchange -> handle(exchange, this::newGame));
+        server.createContext("/api/game/joinOpenGame", exchange -> handle(exchange, this::joinOpenGame));
+        server.createContext("/api/game/applyMove", exchange -> handle(exchange, this::applyMove));
+        server.setExecutor(Executors.newFixedThreadPool(threads, new NamedThreadFactory("standin-server")));
+        server.start();
+
+        for (int i = 0; i < openGames; i++)
+            openOpponentGame();
+        opponents.scheduleAtFixedRate(this::report, reportInterval, reportInterval, TimeUnit.SECONDS);
+        System.out.println("Stand-in game server for '" + layout.getName() + "' listening on port " + port);
+    }
+
+    private Reply login(HttpExchange exchange, String username) throws IOException {
+        JsonNode request = readBody(exchange);
+        String name = request.path("username").asText("");
+        if (name.isEmpty()) return Reply.error(400, "A username is needed");
+
+        String session = UUID.randomUUID().toString();
+        sessions.put(session, name);
+        exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE + "=" + session + "; Path=/");
+        Map<String, Object> user = new LinkedHashMap<String, Object>();
+        user.put("username", name);
+        return Reply.ok(user);
+    }
+
+    private Reply gameBoards(HttpExchange exchange, String username) {
+        return Reply.ok(new String[] { layout.getName() });
+    }
+
+    private Reply availableOpenGames(HttpExchange exchange, String username) {
+        List<Map<String, Object>> open = new ArrayList<Map<String, Object>>();
+        for (Game game : games.values())
+            synchronized (game) {
+                if (game.isOpen() && !game.hasPlayer(username)) open.add(game.toGameState());
+            }
+        return Reply.ok(open);
+    }
+
+    private Reply myOpenGames(HttpExchange exchange, String username) {
+        List<Map<String, Object>> mine = new ArrayList<Map<String, Object>>();
+        for (Game game : games.values())
+            synchronized (game) {
+                if (game.isOpen() && game.hasPlayer(username)) mine.add(game.toGameState());
+            }
+        return Reply.ok(mine);
+    }
+
+    private Reply myActiveGames(HttpExchange exchange, String username) {
+        List<Map<String, Object>> mine = new ArrayList<Map<String, Object>>();
+        for (Game game : games.values())
+            synchronized (game) {
+                if (!game.isOpen() && game.hasPlayer(username)) mine.add(game.toGameState());
+            }
+        return Reply.ok(mine);
+    }
+
+    private Reply newGame(HttpExchange exchange, String username) throws IOException {
+        JsonNode request = readBody(exchange);
+        Game game = new Game(gameIds.incrementAndGet());
+        boolean isPlayerOne = request.path("isPlayerOne").asBoolean(true);
+        boolean isAutomated = request.path("isAutomated").asBoolean(false);
+        if (isPlayerOne) game.setPlayerOne(username, isAutomated);
+        else game.setPlayerTwo(username, isAutomated);
+        games.put(game.id, game);
+
+        opponents.schedule(() -> joinAsOpponent(game), joinDelay, TimeUnit.MILLISECONDS);
+        synchronized (game) {
+            return Reply.ok(game.toGameState());
+        }
+    }
+
+    private Reply joinOpenGame(HttpExchange exchange, String username) throws IOException {
+        JsonNode request = readBody(exchange);
+        Game game = games.get(request.path("gameId").asLong());
+        if (game == null) return Reply.error(404, "No such game");
+
+        synchronized (game) {
+            if (!game.isOpen() || game.hasPlayer(username)) return Reply.error(409, "The game can't be joined");
+            boolean isAutomated = request.path("isAutomated").asBoolean(false);
+            if (game.playerOne == null) game.setPlayerOne(username, isAutomated);
+            else game.setPlayerTwo(username, isAutomated);
+            startGame(game);
+        }
+        openOpponentGame();
+        synchronized (game) {
+            return Reply.ok(game.toGameState());
+        }
+    }
+
+    private Reply applyMove(HttpExchange exchange, String username) throws IOException {
+        JsonNode request = readBody(exchange);
+        Game game = games.get(request.path("gameId").asLong());
+        if (game == null) return Reply.error(404, "No such game");
+
+        synchronized (game) {
+            if (game.isOpen() || !username.equals(game.getPlayerToMove())) return rejected(409, "It isn't your turn");
+            Bitboard move = Bitboard.tryParse(request.path("boardState").asText(""));
+            if (move == null || !game.getLegalMoves().contains(move)) return rejected(400, "That isn't a legal move");
+
+            turnTimes.recordNanos(System.nanoTime() - game.turnStartedAt);
+            movesAccepted.increment();
+            makeMove(game, move.toString());
+            return Reply.ok(game.toGameState());
+        }
+    }
+
+    private Reply rejected(int status, String message) {
+        movesRejected.increment();
+        return Reply.error(status, message);
+    }
+
+    // the caller holds the game's lock
+    private void makeMove(Game game, String boardState) {
+        if (game.isPlayerOnesTurn) game.playerOneUnplayed = Math.max(0, game.playerOneUnplayed - 1);
+        else game.playerTwoUnplayed = Math.max(0, game.playerTwoUnplayed - 1);
+        game.board = boardState;
+        game.numberOfMovesMade++;
+        game.isPlayerOnesTurn = !game.isPlayerOnesTurn;
+        game.turnStartedAt = System.nanoTime();
+
+        char player = game.isPlayerOnesTurn ? Constants.WHITE : Constants.BLACK;
+        int unplayed = game.isPlayerOnesTurn ? game.playerOneUnplayed : game.playerTwoUnplayed;
+        if (Bitboard.parse(boardState).countPieces(player) + unplayed < 3 || game.getLegalMoves().isEmpty()) finishGame(game, !game.isPlayerOnesTurn);
+        else if (game.numberOfMovesMade >= maxMoves) finishGame(game, null);
+        else if (game.isOpponentToMove()) scheduleOpponentMove(game);
+    }
+
+    // the caller holds the game's lock; playerOneWon is null for a draw
+    private void finishGame(Game game, Boolean playerOneWon) {
+        games.remove(game.id);
+        game.finished = true;
+        if (playerOneWon == null) draws.increment();
+        else if (isOpponent(playerOneWon ? game.playerOne : game.playerTwo)) losses.increment();
+        else wins.increment();
+    }
+
+    // the caller holds the game's lock
+    private void startGame(Game game) {
+        gamesStarted.increment();
+        game.turnStartedAt = System.nanoTime();
+        if (game.isOpponentToMove()) scheduleOpponentMove(game);
+    }
+
+    private void scheduleOpponentMove(final Game game) {
+        long delay = opponentDelay == 0 ? 0 : opponentDelay / 2 + ThreadLocalRandom.current().nextLong(opponentDelay + 1);
+        opponents.schedule(() -> {
+            synchronized (game) {
+                if (game.finished || !game.isOpponentToMove()) return;
+                // the picker plays white, so black's board is swapped for it
+                boolean white = game.isPlayerOnesTurn;
+                int unplayed = white ? game.playerOneUnplayed : game.playerTwoUnplayed;
+                String board = white ? game.board : Bitboard.swapColors(game.board);
+                String move = LegalMovePicker.pick(board, unplayed);
+                if (move == null) {
+                    finishGame(game, !white);
+                    return;
+                }
+                makeMove(game, white ? move : Bitboard.swapColors(move));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void joinAsOpponent(Game game) {
+        synchronized (game) {
+            if (!game.isOpen() || game.finished) return;
+            if (game.playerOne == null) game.setPlayerOne(newOpponentName(), false);
+            else game.setPlayerTwo(newOpponentName(), false);
+            startGame(game);
+        }
+    }
+
+    private void openOpponentGame() {
+        Game game = new Game(gameIds.incrementAndGet());
+        if (ThreadLocalRandom.current().nextBoolean()) game.setPlayerOne(newOpponentName(), false);
+        else game.setPlayerTwo(newOpponentName(), false);
+        games.put(game.id, game);
+    }
+
+    private String newOpponentName() {
+        return OPPONENT_PREFIX + opponentNames.incrementAndGet();
+    }
+
+    private static boolean isOpponent(String username) {
+        return username.startsWith(OPPONENT_PREFIX);
+    }
+
+    private void report() {
+        int active = 0;
+        int open = 0;
+        for (Game game : games.values()) {
+            if (game.isOpen()) open++;
+            else active++;
+        }
+        LatencyRecorder.Snapshot turns = turnTimes.snapshot(true);
+        System.out.println("Stand-in: " + active + " active games, " + open + " open games; games started: " + gamesStarted.sum() //
+                + "; won/lost/drawn by the wrapper: " + wins.sum() + "/" + losses.sum() + "/" + draws.sum() //
+                + "; moves accepted: " + movesAccepted.sum() + "; moves rejected: " + movesRejected.sum());
+        System.out.println(String.format("Stand-in: %.1f wrapper moves/s over the last %ds; turn time %s", turns.getCount() / (double) reportInterval, reportInterval, turns));
+    }
+
+    private JsonNode readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            JsonNode node = objectMapper.readTree(in);
+            return node == null ? objectMapper.createObjectNode() : node;
+        }
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            String username = null;
+            if (!exchange.getRequestURI().getPath().endsWith("/login")) {
+                username = getSessionUser(exchange);
+                if (username == null) {
+                    send(exchange, Reply.error(401, "Not logged in"));
+                    return;
+                }
+            }
+            send(exchange, handler.handle(exchange, username));
+        } catch (Exception e) {
+            log.error("Error serving " + exchange.getRequestURI() + ": " + e.getMessage());
+            send(exchange, Reply.error(500, e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String getSessionUser(HttpExchange exchange) {
+        List<String> cookies = exchange.getRequestHeaders().get("Cookie");
+        if (cookies == null) return null;
+        for (String header : cookies)
+            for (String cookie : header.split(";")) {
+                String[] nameValue = cookie.trim().split("=", 2);
+                if (nameValue.length == 2 && SESSION_COOKIE.equals(nameValue[0])) return sessions.get(nameValue[1]);
+            }
+        return null;
+    }
+
+    // lists carry an ETag, so the wrapper's conditional polls get a 304 while nothing changed
+    private void send(HttpExchange exchange, Reply reply) throws IOException {
+        byte[] body = reply.body instanceof String ? ((String) reply.body).getBytes("UTF-8") : objectMapper.writeValueAsBytes(reply.body);
+        exchange.getResponseHeaders().set("Content-Type", reply.status < 300 ? JSON : "text/plain;charset=UTF-8");
+        if (reply.status == 200 && "GET".equals(exchange.getRequestMethod())) {
+            String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "-" + body.length + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                // the JDK's server drops the connection after a 304, the client has to know not to reuse it
+                exchange.getResponseHeaders().set("Connection", "close");
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+        }
+        exchange.sendResponseHeaders(reply.status, body.length == 0 ? -1 : body.length);
+        if (body.length == 0) return;
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private interface Handler {
+        Reply handle(HttpExchange exchange, String username) throws Exception;
+    }
+
+    private static class Reply {
+        final int status;
+        final Object body; // written as JSON, or as text for errors
+
+        Reply(int status, Object body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        static Reply ok(Object body) {
+            return new Reply(200, body);
+        }
+
+        static Reply error(int status, String message) {
+            return new Reply(status, message == null ? "" : message);
+        }
+    }
+
+    /**
+     * One game, guarded by its own lock.  A player is a simulated opponent when it isn't a logged in user.
+     */
+    private class Game {
+        final long id;
+        String playerOne;
+        String playerTwo;
+        boolean playerOneIsAutomated;
+        boolean playerTwoIsAutomated;
+        String board = emptyBoard;
+        int playerOneUnplayed = layout.getPiecesPerPlayer();
+        int playerTwoUnplayed = layout.getPiecesPerPlayer();
+        int numberOfMovesMade = 0;
+        boolean isPlayerOnesTurn = true;
+        long turnStartedAt;
+        boolean finished = false;
+
+        Game(long id) {
+            this.id = id;
+        }
+
+        void setPlayerOne(String username, boolean isAutomated) {
+            playerOne = username;
+            playerOneIsAutomated = isAutomated;
+        }
+
+        void setPlayerTwo(String username, boolean isAutomated) {
+            playerTwo = username;
+            playerTwoIsAutomated = isAutomated;
+        }
+
+        boolean isOpen() {
+            return playerOne == null || playerTwo == null;
+        }
+
+        boolean hasPlayer(String username) {
+            return username.equals(playerOne) || username.equals(playerTwo);
+        }
+
+        String getPlayerToMove() {
+            return isPlayerOnesTurn ? playerOne : playerTwo;
+        }
+
+        boolean isOpponentToMove() {
+            return !isOpen() && isOpponent(getPlayerToMove());
+        }
+
+        List<Bitboard> getLegalMoves() {
+            Bitboard position = Bitboard.parse(board);
+            char player = isPlayerOnesTurn ? Constants.WHITE : Constants.BLACK;
+            char opponent = isPlayerOnesTurn ? Constants.BLACK : Constants.WHITE;
+            int unplayed = isPlayerOnesTurn ? playerOneUnplayed : playerTwoUnplayed;
+            if (unplayed > 0) return MoveGenerator.getPlacements(layout, position, player, opponent);
+            return MoveGenerator.getSlides(layout, position, player, opponent);
+        }
+
+        // the fields of the common library's GameState
+        Map<String, Object> toGameState() {
+            Map<String, Object> gameState = new LinkedHashMap<String, Object>();
+            gameState.put("id", id);
+            gameState.put("currentBoardState", board);
+            gameState.put("numberOfMovesMade", numberOfMovesMade);
+            gameState.put("isPlayerOnesTurn", isPlayerOnesTurn);
+            gameState.put("playerOneUsername", playerOne);
+            gameState.put("playerTwoUsername", playerTwo);
+            gameState.put("playerOneIsAutomated", playerOneIsAutomated);
+            gameState.put("playerTwoIsAutomated", playerTwoIsAutomated);
+            gameState.put("playerOneAiEndpoint", null);
+            gameState.put("playerTwoAiEndpoint", null);
+            gameState.put("playerOneUnplayedPieceCount", playerOneUnplayed);
+            gameState.put("playerTwoUnplayedPieceCount", playerTwoUnplayed);
+            return gameState;
+        }
+    }
+}
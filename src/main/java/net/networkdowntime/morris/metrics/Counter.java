@@ -0,0 +1,74 @@
+package net.networkdowntime.morris.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up.  Like a histogram, a counter can be split by one label.
+ *
+ * @author rwiles
+ *
+ */
+public class Counter {
+    private final String name;
+    private final String help;
+    private final String labelName;
+    private final LongAdder count = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> labeled = new ConcurrentHashMap<String, LongAdder>();
+
+    Counter(String name, String help) {
+        this(name, help, null);
+    }
+
+    Counter(String name, String help, String labelName) {
+        this.name = name;
+        this.help = help;
+        this.labelName = labelName;
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * Counts one for the label value.
+     */
+    public void increment(String labelValue) {
+        LongAdder series = labeled.get(labelValue);
+        if (series == null) {
+            labeled.putIfAbsent(labelValue, new LongAdder());
+            series = labeled.get(labelValue);
+        }
+        series.increment();
+    }
+
+    public long get() {
+        return count.sum();
+    }
+
+    /**
+     * The count of every label value, sorted by the value.
+     */
+    public Map<String, Long> getByLabel() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, LongAdder> entry : labeled.entrySet())
+            counts.put(entry.getKey(), entry.getValue().sum());
+        return counts;
+    }
+
+    void write(Writer out) throws IOException {
+        out.write("# HELP " + name + " " + help + "\n");
+        out.write("# TYPE " + name + " counter\n");
+        if (labelName == null) {
+            out.write(name + " " + count.sum() + "\n");
+        } else {
+            for (Map.Entry<String, Long> entry : getByLabel().entrySet())
+                out.write(name + "{" + labelName + "=\"" + Metrics.escape(entry.getKey()) + "\"} " + entry.getValue() + "\n");
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package net.networkdowntime.morris.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with fixed buckets from 100us to 60s.  Recording a value is a short scan of the bucket bounds and two
+ * LongAdder increments, so it can sit on the move path.  A histogram can be split by one label, for example per server endpoint.
+ *
+ * @author rwiles
+ *
+ */
+public class Histogram {
+    // upper bounds in nanoseconds; +Inf is implied
+    private static final long[] BOUNDS = { 100000L, 250000L, 500000L, 1000000L, 2500000L, 5000000L, 10000000L, 25000000L, 50000000L, //
+            100000000L, 250000000L, 500000000L, 1000000000L, 2500000000L, 5000000000L, 10000000000L, 30000000000L, 60000000000L };
+
+    private final String name;
+    private final String help;
+    private final String labelName;
+    private final Series unlabeled;
+    private final ConcurrentMap<String, Series> labeled = new ConcurrentHashMap<String, Series>();
+
+    Histogram(String name, String help, String labelName) {
+        this.name = name;
+        this.help = help;
+        this.labelName = labelName;
+        this.unlabeled = labelName == null ? new Series() : null;
+    }
+
+    /**
+     * Records a duration measured with System.nanoTime().
+     */
+    public void observeNanos(long nanos) {
+        unlabeled.observeNanos(nanos);
+    }
+
+    /**
+     * The series for one label value; keep it around instead of looking it up for every value.
+     */
+    public Series labels(String labelValue) {
+        Series series = labeled.get(labelValue);
+        if (series == null) {
+            labeled.putIfAbsent(labelValue, new Series());
+            series = labeled.get(labelValue);
+        }
+        return series;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void write(Writer out) throws IOException {
+        out.write("# HELP " + name + " " + help + "\n");
+        out.write("# TYPE " + name + " histogram\n");
+        if (unlabeled != null) {
+            unlabeled.write(out, name, "");
+        } else {
+            for (Map.Entry<String, Series> entry : new TreeMap<String, Series>(labeled).entrySet())
+                entry.getValue().write(out, name, labelName + "=\"" + Metrics.escape(entry.getKey()) + "\",");
+        }
+    }
+
+    public static class Series {
+        private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Series() {
+            for (int i = 0; i < buckets.length; i++)
+                buckets[i] = new LongAdder();
+        }
+
+        public void observeNanos(long nanos) {
+            int i = 0;
+            while (i < BOUNDS.length && nanos > BOUNDS[i])
+                i++;
+            buckets[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets)
+                count += bucket.sum();
+            return count;
+        }
+
+        private void write(Writer out, String name, String labels) throws IOException {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String le = i < BOUNDS.length ? Double.toString(BOUNDS[i] / 1e9) : "+Inf";
+                out.write(name + "_bucket{" + labels + "le=\"" + le + "\"} " + cumulative + "\n");
+            }
+            String seriesLabels = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+            out.write(name + "_sum" + seriesLabels + " " + sumNanos.sum() / 1e9 + "\n");
+            out.write(name + "_count" + seriesLabels + " " + cumulative + "\n");
+        }
+    }
+}
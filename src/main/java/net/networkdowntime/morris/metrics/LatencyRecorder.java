@@ -0,0 +1,76 @@
+package net.networkdowntime.morris.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Keeps every latency it's given so exact percentiles can be reported, for the load testing and replay tools where the fixed
+ * buckets of a Histogram are too coarse.  Not meant for the move path of a long running wrapper: it grows with every value until
+ * a snapshot resets it.
+ *
+ * @author rwiles
+ *
+ */
+public class LatencyRecorder {
+    private long[] values = new long[1024];
+    private int count = 0;
+
+    /**
+     * Records a duration measured with System.nanoTime().
+     */
+    public synchronized void recordNanos(long nanos) {
+        if (count == values.length) values = Arrays.copyOf(values, values.length * 2);
+        values[count++] = nanos;
+    }
+
+    /**
+     * The values recorded so far, optionally starting over.
+     */
+    public synchronized Snapshot snapshot(boolean reset) {
+        long[] sorted = Arrays.copyOf(values, count);
+        if (reset) count = 0;
+        Arrays.sort(sorted);
+        return new Snapshot(sorted);
+    }
+
+    public static class Snapshot {
+        private final long[] sorted;
+
+        Snapshot(long[] sorted) {
+            this.sorted = sorted;
+        }
+
+        public int getCount() {
+            return sorted.length;
+        }
+
+        /**
+         * The value at the percentile (0 to 100) in nanoseconds, 0 when nothing was recorded.
+         */
+        public long getPercentile(double percentile) {
+            if (sorted.length == 0) return 0;
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+
+        public long getMax() {
+            return sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+        }
+
+        public long getMean() {
+            if (sorted.length == 0) return 0;
+            long sum = 0;
+            for (long value : sorted)
+                sum += value;
+            return sum / sorted.length;
+        }
+
+        /**
+         * Count, mean and the usual percentiles in milliseconds on one line.
+         */
+        @Override
+        public String toString() {
+            return String.format("count %d; mean %.1fms; p50 %.1fms; p90 %.1fms; p99 %.1fms; p99.9 %.1fms; max %.1fms", getCount(), getMean() / 1e6, //
+                    getPercentile(50) / 1e6, getPercentile(90) / 1e6, getPercentile(99) / 1e6, getPercentile(99.9) / 1e6, getMax() / 1e6);
+        }
+    }
+}
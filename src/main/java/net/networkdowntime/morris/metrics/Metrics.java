@@ -0,0 +1,133 @@
+package net.networkdowntime.morris.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+import net.networkdowntime.morris.MoveExecutor;
+import net.networkdowntime.morris.cache.MoveCache;
+
+/**
+ * Every metric the wrapper keeps, written in the Prometheus text format by scrape().  Mode 1 serves them at /metrics, Mode 2
+ * on the MetricsServer.
+ *
+ * Move stages:
+ *      queue wait:    waiting for a free slot on the move executor
+ *      input write:   writing the board state to the input file or to the engine's standard in
+ *      process spawn: starting the engine process
+ *      engine run:    from the board state being written until the engine has answered or exited
+ *      output read:   reading the move back from the output file and the engine's output streams
+ *
+ * @author rwiles
+ *
+ */
+public class Metrics {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final List<Histogram> histograms = new ArrayList<Histogram>();
+    private static final List<Counter> counters = new ArrayList<Counter>();
+    private static final List<Gauge> gauges = new CopyOnWriteArrayList<Gauge>(); // subsystems add theirs when they start
+
+    public static final Histogram QUEUE_WAIT = histogram("morris_move_queue_wait_seconds", "Time moves waited for a free move executor slot", null);
+    public static final Histogram INPUT_WRITE = histogram("morris_engine_input_write_seconds", "Time spent writing the board state for the engine", null);
+    public static final Histogram PROCESS_SPAWN = histogram("morris_engine_process_spawn_seconds", "Time spent starting engine processes", null);
+    public static final Histogram ENGINE_RUN = histogram("morris_engine_run_seconds", "Time the engine took to answer", null);
+    public static final Histogram OUTPUT_READ = histogram("morris_engine_output_read_seconds", "Time spent reading the engine's move and output", null);
+    public static final Histogram MOVE = histogram("morris_move_seconds", "Time to produce a move, by where it came from", "source");
+    public static final Histogram SERVER_ROUND_TRIP = histogram("morris_server_round_trip_seconds", "Game server request round trip time, Mode 2", "endpoint");
+
+    public static final Counter ENGINE_FAILURES = counter("morris_engine_failures_total", "Moves the engine failed to produce");
+    public static final Counter ENGINE_TIMEOUTS = counter("morris_engine_timeouts_total", "Engine runs killed because they ran out of time");
+    public static final Counter INVALID_OUTPUT_LENGTH = counter("morris_engine_invalid_output_length_total", "Engine answers with the wrong board state length");
+    public static final Counter SERVER_REJECTIONS = counter("morris_server_rejections_total", "Moves the game server rejected, Mode 2");
+    public static final Counter PONDER_HITS = counter("morris_ponder_hits_total", "Opponent moves we had pondered an answer for, Mode 2");
+    public static final Counter PONDER_MISSES = counter("morris_ponder_misses_total", "Opponent moves we pondered other replies for, Mode 2");
+    public static final Counter REQUESTS_SHED = counter("morris_requests_shed_total", "Move requests turned away because the move queue was full, Mode 1");
+    public static final Counter DEADLINE_EXCEEDED = counter("morris_deadline_exceeded_total", "Move requests not answered within their deadline, Mode 1");
+    public static final Counter DISPATCH_RETRIES = counter("morris_dispatch_retries_total", "Moves sent to another worker after one failed, Mode 1 dispatcher");
+    public static final Counter LADDER_WINS = counter("morris_ladder_wins_total", "Ladder races won, by phase and the command line of the winning rung", "rung");
+    public static final Counter LADDER_SKIPPED = counter("morris_ladder_skipped_total", "Moves of a command with a ladder run on the command alone because no cores were spare");
+
+    static {
+        gauge("morris_move_queue_depth", "Moves waiting for a free move executor slot", "gauge", () -> MoveExecutor.getQueueDepth());
+        gauge("morris_move_active", "Moves being computed", "gauge", () -> MoveExecutor.getActiveCount());
+        gauge("morris_move_cache_hits_total", "Move cache hits", "counter", MoveCache::getHitCount);
+        gauge("morris_move_cache_misses_total", "Move cache misses", "counter", MoveCache::getMissCount);
+    }
+
+    /**
+     * All metrics in the Prometheus text format.
+     */
+    public static String scrape() {
+        StringWriter out = new StringWriter(4096);
+        try {
+            write(out);
+        } catch (IOException e) {} // a StringWriter doesn't throw
+        return out.toString();
+    }
+
+    public static void write(Writer out) throws IOException {
+        for (Histogram histogram : histograms)
+            histogram.write(out);
+        for (Counter counter : counters)
+            counter.write(out);
+        for (Gauge gauge : gauges)
+            gauge.write(out);
+    }
+
+    static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static Histogram histogram(String name, String help, String labelName) {
+        Histogram histogram = new Histogram(name, help, labelName);
+        histograms.add(histogram);
+        return histogram;
+    }
+
+    private static Counter counter(String name, String help) {
+        return counter(name, help, null);
+    }
+
+    private static Counter counter(String name, String help, String labelName) {
+        Counter counter = new Counter(name, help, labelName);
+        counters.add(counter);
+        return counter;
+    }
+
+    /**
+     * Adds a value read from a subsystem when scraped, for a subsystem that only some modes start; the type is gauge or counter.
+     */
+    public static void register(String name, String help, String type, LongSupplier value) {
+        gauge(name, help, type, value);
+    }
+
+    // a value read from elsewhere when scraped; the type is gauge or counter
+    private static void gauge(String name, String help, String type, LongSupplier value) {
+        gauges.add(new Gauge(name, help, type, value));
+    }
+
+    private static class Gauge {
+        final String name;
+        final String help;
+        final String type;
+        final LongSupplier value;
+
+        Gauge(String name, String help, String type, LongSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.value = value;
+        }
+
+        void write(Writer out) throws IOException {
+            out.write("# HELP " + name + " " + help + "\n");
+            out.write("# TYPE " + name + " " + type + "\n");
+            out.write(name + " " + value.getAsLong() + "\n");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package net.networkdowntime.morris.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.sun.net.httpserver.HttpServer;
+
+import net.networkdowntime.morris.NamedThreadFactory;
+
+/**
+ * A small HTTP endpoint serving the metrics at /metrics for the modes that don't run the web server.
+ *
+ * Settings (Java system properties):
+ *      morris.metrics.port: the port to serve the metrics on, the endpoint is off unless it's set
+ *
+ * @author rwiles
+ *
+ */
+public class MetricsServer {
+    static final Logger log = LogManager.getLogger(MetricsServer.class);
+
+    public static final String PORT_PROPERTY = "morris.metrics.port";
+
+    /**
+     * Starts the endpoint if morris.metrics.port is set.
+     *
+     * @return false if the port is set but the endpoint couldn't be started
+     */
+    public static boolean startIfConfigured() {
+        Integer port = Integer.getInteger(PORT_PROPERTY);
+        if (port == null) return true;
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", Metrics.CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.setExecutor(Executors.newSingleThreadExecutor(new NamedThreadFactory("metrics-server")));
+            server.start();
+            System.out.println("Serving metrics on port " + port + " at /metrics");
+            return true;
+        } catch (IOException e) {
+            log.error("Unable to serve metrics on port " + port + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package net.networkdowntime.morris.scheduling;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides when Mode 2 polls the server next.
+ *
+ * For every game that is waiting on the opponent it learns how long that opponent takes to move and polls around the time the
+ * opponent's move is expected, backing off with jitter while the opponent keeps thinking.  Waiting happens on the shared timer
+ * wheel and ends early when something happens that needs a poll, like a move failing.
+ *
+ * Settings (Java system properties):
+ *      morris.poll.minInterval: shortest time between polls in milliseconds (default: 500)
+ *      morris.poll.maxInterval: longest time between polls of active games in milliseconds (default: 20000)
+ *      morris.poll.maxOpenGameInterval: longest time between polls while waiting for somebody to join our game (default: 120000)
+ *
+ * @author rwiles
+ *
+ */
+public class PollScheduler {
+    public static final String MIN_INTERVAL_PROPERTY = "morris.poll.minInterval";
+    public static final String MAX_INTERVAL_PROPERTY = "morris.poll.maxInterval";
+    public static final String MAX_OPEN_GAME_INTERVAL_PROPERTY = "morris.poll.maxOpenGameInterval";
+
+    private static final long minInterval = Long.getLong(MIN_INTERVAL_PROPERTY, 500);
+    private static final long maxInterval = Long.getLong(MAX_INTERVAL_PROPERTY, 20 * 1000);
+    private static final long maxOpenGameInterval = Long.getLong(MAX_OPEN_GAME_INTERVAL_PROPERTY, 120 * 1000);
+
+    private static final double BACKOFF = 1.5;
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    private final Map<Long, GameTiming> games = new HashMap<Long, GameTiming>();
+    private double averageLatency = 5 * 1000; // opponent move latency across games, the starting guess for a new game
+    private long openGameInterval = minInterval;
+
+    private CompletableFuture<Void> wakeUp = null;
+    private boolean wakeUpPending = false;
+
+    /**
+     * Records what a poll showed for a game.
+     */
+    public synchronized void gamePolled(long gameId, boolean isMyTurn) {
+        long now = System.currentTimeMillis();
+        GameTiming timing = games.get(gameId);
+        if (timing == null) {
+            timing = new GameTiming(averageLatency);
+            games.put(gameId, timing);
+        }
+
+        if (isMyTurn) {
+            if (timing.opponentTurnStart > 0) {
+                // the opponent moved somewhere between the previous poll and this one
+                long movedAt = (timing.lastPoll + now) / 2;
+                long latency = Math.max(0, movedAt - timing.opponentTurnStart);
+                timing.latency = timing.latency * (1 - LATENCY_WEIGHT) + latency * LATENCY_WEIGHT;
+                averageLatency = averageLatency * (1 - LATENCY_WEIGHT) + latency * LATENCY_WEIGHT;
+                timing.opponentTurnStart = 0;
+            }
+            timing.nextPoll = now;
+        } else {
+            if (timing.opponentTurnStart == 0) {
+                timing.opponentTurnStart = now;
+                timing.interval = expectedInterval(timing);
+            } else {
+                timing.interval = Math.min(maxInterval, (long) (timing.interval * BACKOFF));
+            }
+            timing.nextPoll = now + jitter(timing.interval);
+        }
+        timing.lastPoll = now;
+    }
+
+    /**
+     * A move is being computed for the game, it doesn't need polling until the move is submitted or fails.
+     */
+    public synchronized void moveDispatched(long gameId) {
+        GameTiming timing = games.get(gameId);
+        if (timing != null) timing.nextPoll = Long.MAX_VALUE;
+    }
+
+    /**
+     * Computing or submitting the move failed, poll the game again right away.
+     */
+    public synchronized void moveFailed(long gameId) {
+        GameTiming timing = games.get(gameId);
+        if (timing != null) timing.nextPoll = System.currentTimeMillis();
+        wakeUp();
+    }
+
+    /**
+     * Our move was accepted, the opponent's clock starts now.  Wakes the poll loop so it picks up the game's new schedule.
+     */
+    public synchronized void moveSubmitted(long gameId) {
+        long now = System.currentTimeMillis();
+        GameTiming timing = games.get(gameId);
+        if (timing == null) return;
+        timing.opponentTurnStart = now;
+        timing.lastPoll = now;
+        timing.interval = expectedInterval(timing);
+        timing.nextPoll = now + jitter(timing.interval);
+        wakeUp();
+    }
+
+    /**
+     * Forgets the games that aren't active anymore.
+     */
+    public synchronized void retainGames(Collection<Long> activeGameIds) {
+        games.keySet().retainAll(activeGameIds);
+    }
+
+    /**
+     * Milliseconds until the first game is due for a poll.
+     */
+    public synchronized long nextGamePollDelay() {
+        long now = System.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+        for (GameTiming timing : games.values())
+            next = Math.min(next, timing.nextPoll);
+        if (next == Long.MAX_VALUE) return maxInterval; // every game has a move in flight, finishing one wakes us up
+        return Math.max(minInterval, Math.min(maxInterval, next - now));
+    }
+
+    /**
+     * Milliseconds until the next poll for somebody joining our open games; starts short and backs off while nothing changes.
+     */
+    public synchronized long nextOpenGamePollDelay(boolean changed) {
+        if (changed) openGameInterval = minInterval;
+        else openGameInterval = Math.min(maxOpenGameInterval, (long) (openGameInterval * BACKOFF));
+        return jitter(openGameInterval);
+    }
+
+    /**
+     * Waits on the shared timer wheel, returning early if wakeUp() is called.
+     */
+    public void sleep(long millis) {
+        CompletableFuture<Void> future;
+        synchronized (this) {
+            if (wakeUpPending) {
+                wakeUpPending = false;
+                return;
+            }
+            future = wakeUp = new CompletableFuture<Void>();
+        }
+
+        TimerWheel.Timeout timeout = TimerWheel.shared().schedule(() -> future.complete(null), millis);
+        try {
+            future.join();
+        } finally {
+            timeout.cancel();
+            synchronized (this) {
+                wakeUp = null;
+            }
+        }
+    }
+
+    public synchronized void wakeUp() {
+        if (wakeUp != null) wakeUp.complete(null);
+        else wakeUpPending = true;
+    }
+
+    private long expectedInterval(GameTiming timing) {
+        // first look a bit before the opponent usually moves
+        return Math.max(minInterval, Math.min(maxInterval, (long) (timing.latency * 0.8)));
+    }
+
+    private static long jitter(long interval) {
+        return (long) (interval * (0.8 + 0.4 * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    private static class GameTiming {
+        double latency;
+        long opponentTurnStart = 0;
+        long lastPoll = 0;
+        long interval = minInterval;
+        long nextPoll = 0;
+
+        GameTiming(double latency) {
+            this.latency = latency;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package net.networkdowntime.morris.scheduling;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Hashed timer wheel: one thread serves every timeout in the process, however many games or accounts are waiting.
+ * Timeouts fire within one tick of their deadline, tasks run on the timer thread and must be quick.
+ *
+ * @author rwiles
+ *
+ */
+public class TimerWheel {
+    static final Logger log = LogManager.getLogger(TimerWheel.class);
+
+    private static final TimerWheel shared = new TimerWheel(50, 512);
+
+    private final long tickMillis;
+    private final Queue<Timeout>[] buckets;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+    private final long startTime = System.nanoTime();
+    private long tick = 0;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public TimerWheel(long tickMillis, int bucketCount) {
+        this.tickMillis = tickMillis;
+        this.buckets = new Queue[bucketCount];
+        for (int i = 0; i < bucketCount; i++)
+            buckets[i] = new ArrayDeque<Timeout>();
+
+        Thread thread = new Thread(this::run, "timer-wheel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static TimerWheel shared() {
+        return shared;
+    }
+
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task, elapsedMillis() + Math.max(0, delayMillis));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * A future that completes after the delay.
+     */
+    public CompletableFuture<Void> delay(long delayMillis) {
+        final CompletableFuture<Void> future = new CompletableFuture<Void>();
+        final Timeout timeout = schedule(() -> future.complete(null), delayMillis);
+        future.whenComplete((result, error) -> timeout.cancel());
+        return future;
+    }
+
+    private void run() {
+        while (true) {
+            long nextTickAt = (tick + 1) * tickMillis;
+            long sleep = nextTickAt - elapsedMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {}
+                continue;
+            }
+
+            transferPending();
+            Iterator<Timeout> bucket = buckets[(int) (tick % buckets.length)].iterator();
+            while (bucket.hasNext()) {
+                Timeout timeout = bucket.next();
+                if (timeout.cancelled) {
+                    bucket.remove();
+                } else if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                } else {
+                    bucket.remove();
+                    try {
+                        timeout.task.run();
+                    } catch (Throwable t) {
+                        log.error("Timer task failed", t);
+                    }
+                }
+            }
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) continue;
+            long deadlineTick = Math.max(tick, timeout.deadline / tickMillis);
+            timeout.rounds = (deadlineTick - tick) / buckets.length;
+            buckets[(int) (deadlineTick % buckets.length)].add(timeout);
+        }
+    }
+
+    private long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    public static class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,632 @@
+package net.networkdowntime.morris.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.networkdowntime.morris.Constants;
+import net.networkdowntime.morris.ModeTwoRunner;
+import net.networkdowntime.morris.MoveHandler;
+import net.networkdowntime.morris.MultiAccountRunner;
+import net.networkdowntime.morris.Utils;
+import net.networkdowntime.morris.board.Bitboard;
+import net.networkdowntime.morris.board.BoardLayout;
+import net.networkdowntime.morris.book.OpeningBook;
+import net.networkdowntime.morris.book.OpeningBookBuilder;
+import net.networkdowntime.morris.dispatch.Dispatcher;
+import net.networkdowntime.morris.dtos.GameState;
+import net.networkdowntime.morris.engine.EngineCommand;
+import net.networkdowntime.morris.loadtest.LoadGenerator;
+import net.networkdowntime.morris.loadtest.StandInServer;
+import net.networkdowntime.morris.metrics.MetricsServer;
+import net.networkdowntime.morris.tournament.Tournament;
+import net.networkdowntime.morris.trace.TraceRecorder;
+import net.networkdowntime.morris.trace.TraceReplayer;
+
+/**
+ * Reads the wrapper mode and its arguments, checks them, and starts the mode.  Only Mode 1 needs Spring, which is loaded once
+ * Mode 1 is started, so every other mode also runs from the slim jar that leaves Spring and the servlet container out and
+ * starts in a fraction of the time.
+ *
+ * @author rwiles
+ *
+ */
+public class Launcher {
+
+    private enum Mode {
+        mode1, mode2, accounts, book, standin, load, replay, tournament, move
+    };
+
+    public static void main(String[] args) throws IOException {
+        Mode mode = getMode(args);
+
+        if (mode == Mode.mode1) doMode1(args);
+        else if (mode == Mode.mode2) doMode2(args);
+        else if (mode == Mode.accounts) doAccounts(args);
+        else if (mode == Mode.book) doBook(args);
+        else if (mode == Mode.standin) doStandIn(args);
+        else if (mode == Mode.load) doLoad(args);
+        else if (mode == Mode.replay) doReplay(args);
+        else if (mode == Mode.tournament) doTournament(args);
+        else if (mode == Mode.move) doMove(args);
+    }
+
+    private static Mode getMode(String... args) {
+        for (String arg : args) {
+            for (Mode mode : Mode.values())
+                if (mode.toString().equals(arg)) return mode;
+        }
+        System.err.println("Missing Wrapper Mode Argument: valid wrapper modes are [mode1|mode2|accounts|book|standin|load|replay|tournament|move]");
+        System.exit(1);
+        return null;
+    }
+
+    private static void doMode2(String... args) throws IOException {
+        boolean fail = false;
+
+        String username = null;
+        String password = null;
+        String server = null;
+
+        int argNum = 1; // arg 1 is the mode
+        // Read Username
+        if (args.length > argNum) {
+            username = args[argNum];
+        } else {
+            System.err.println("Missing Username Argument: expected your username as argument " + argNum);
+            fail |= true;
+        }
+        argNum++;
+        // Read Password
+        if (args.length > argNum) {
+            password = args[argNum];
+        } else {
+            System.err.println("Missing Password Argument: expected your password as argument " + argNum);
+            fail |= true;
+        }
+        argNum++;
+        // Read Server URL
+        if (args.length > argNum) {
+            server = args[argNum];
+        } else {
+            System.err.println("Missing Server Argument: expected the server's URL as argument " + argNum);
+            fail |= true;
+        }
+        argNum++;
+
+        fail |= readCommandLineFileArgs(argNum, args);
+        fail |= canWriteFileIsFail();
+        fail |= startEngineWorkersIsFail();
+        fail |= loadOpeningBookIsFail();
+        fail |= !MetricsServer.startIfConfigured();
+        if (fail) System.exit(1);
+        new ModeTwoRunner(username, password, server).run();
+    }
+
+    private static void doAccounts(String... args) throws IOException {
+        boolean fail = false;
+
+        String accountsFile = null;
+        String server = null;
+
+        int argNum = 1; // arg 1 is the mode
+        // Read Accounts File
+        if (args.length > argNum) {
+            accountsFile = args[argNum];
+        } else {
+            System.err.println("Missing Accounts File Argument: expected a file of USERNAME PASSWORD lines as argument " + argNum);
+            fail |= true;
+        }
+        argNum++;
+        // Read Server URL
+        if (args.length > argNum) {
+            server = args[argNum];
+        } else {
+            System.err.println("Missing Server Argument: expected the server's URL as argument " + argNum);
+            fail |= true;
+        }
+        argNum++;
+
+        MultiAccountRunner runner = null;
+        if (accountsFile != null) {
+            try {
+                runner = MultiAccountRunner.load(new File(accountsFile), server);
+            } catch (IllegalArgumentException | IOException e) {
+                System.err.println("Error reading " + accountsFile + ": " + e.getMessage());
+                fail |= true;
+            }
+        }
+
+        fail |= readCommandLineFileArgs(argNum, args);
+        fail |= canWriteFileIsFail();
+        fail |= startEngineWorkersIsFail();
+        fail |= loadOpeningBookIsFail();
+        fail |= !MetricsServer.startIfConfigured();
+        if (fail) System.exit(1);
+        runner.run();
+    }
+
+    private static void doBook(String... args) throws IOException {
+        boolean fail = false;
+
+        String bookFile = null;
+        int depth = 0;
+
+        int argNum = 1; // arg 1 is the mode
+        // Read Book File
+        if (args.length > argNum) {
+            bookFile = args[argNum];
+        } else {
+            System.err.println("Missing Book File Argument: expected the opening book file to write as argument " + argNum);
+            fail |= true;
+        }
+        argNum++;
+        // Read Depth
+        if (args.length > argNum) {
+            try {
+                depth = Integer.parseInt(args[argNum]);
+            } catch (NumberFormatException e) {}
+            if (depth < 1) {
+                System.err.println("Invalid Depth '" + args[argNum] + "': expected the number of our own moves to put in the book as argument " + argNum);
+                fail |= true;
+            }
+        } else {
+            System.err.println("Missing Depth Argument: expected the number of our own moves to put in the book as argument " + argNum);
+            fail |= true;
+        }
+        argNum++;
+        // Read Opening Command Line File
+        String openingFile = (args.length > argNum) ? args[argNum] : Constants.OPENING_COMMAND_LINE_FILE;
+        if (commandLineFileIsFail(openingFile)) {
+            fail |= true;
+        } else {
+            MoveHandler.openingCommandLine = Utils.getFileAsString(openingFile).trim();
+        }
+
+        BoardLayout layout = getOnlyLayout("Building an opening book");
+        if (layout == null) fail |= true;
+
+        fail |= canWriteFileIsFail();
+        fail |= startEngineWorkersIsFail();
+        if (fail) System.exit(1);
+
+        try {
+            new OpeningBookBuilder(layout, depth).build(new File(bookFile));
+        } catch (Exception e) {
+            System.err.println("Unable to build the opening book: " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static void doStandIn(String... args) throws IOException {
+        boolean fail = false;
+        int portNumber = 8091;
+
+        int argNum = 1; // arg 1 is the mode
+        // Read Port
+        if (args.length > argNum) {
+            String arg = args[argNum];
+            try {
+                portNumber = Integer.parseInt(arg);
+                if (portNumber < 1024 || portNumber > 65535) {
+                    invalidPortError("" + portNumber, false);
+                    fail |= true;
+                }
+            } catch (NumberFormatException e) {
+                invalidPortError(arg, true);
+                fail |= true;
+            }
+        }
+        argNum++;
+
+        BoardLayout layout = getOnlyLayout("The stand-in game server");
+        if (layout == null) fail |= true;
+        if (fail) System.exit(1);
+
+        try {
+            new StandInServer(layout).start(portNumber);
+        } catch (IOException e) {
+            System.err.println("Unable to start the stand-in game server: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void doLoad(String... args) throws IOException {
+        boolean fail = false;
+
+        String server = null;
+        int concurrency = 8;
+        int seconds = 60;
+
+        int argNum = 1; // arg 1 is the mode
+        // Read Server URL
+        if (args.length > argNum) {
+            server = args[argNum];
+        } else {
+            System.err.println("Missing Server Argument: expected the Mode 1 wrapper's URL as argument " + argNum);
+            fail |= true;
+        }
+        argNum++;
+        // Read Concurrency
+        if (args.length > argNum) {
+            concurrency = parsePositive(args[argNum]);
+            if (concurrency < 1) {
+                System.err.println("Invalid Concurrency '" + args[argNum] + "': expected the number of concurrent clients as argument " + argNum);
+                fail |= true;
+            }
+        }
+        argNum++;
+        // Read Duration
+        if (args.length > argNum) {
+            seconds = parsePositive(args[argNum]);
+            if (seconds < 1) {
+                System.err.println("Invalid Duration '" + args[argNum] + "': expected the number of seconds to run as argument " + argNum);
+                fail |= true;
+            }
+        }
+        argNum++;
+
+        BoardLayout layout = getOnlyLayout("The load generator");
+        if (layout == null) fail |= true;
+        if (fail) System.exit(1);
+
+        try {
+            new LoadGenerator(layout, server, concurrency, seconds).run();
+        } catch (Exception e) {
+            System.err.println("The load test failed: " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static void doReplay(String... args) throws IOException {
+        boolean fail = false;
+
+        File traceFile = null;
+
+        int argNum = 1; // arg 1 is the mode
+        // Read Trace File
+        if (args.length > argNum) {
+            traceFile = new File(args[argNum]);
+            if (!traceFile.isFile()) {
+                System.err.println("Missing required file: " + traceFile);
+                fail |= true;
+            } else if (TraceRecorder.isEnabled() && TraceRecorder.getFile().getCanonicalFile().equals(traceFile.getCanonicalFile())) {
+                System.err.println("The trace being replayed can't be recorded to, set -D" + TraceRecorder.FILE_PROPERTY + " to another file");
+                fail |= true;
+            }
+        } else {
+            System.err.println("Missing Trace File Argument: expected a trace recorded with -D" + TraceRecorder.FILE_PROPERTY + " as argument " + argNum);
+            fail |= true;
+        }
+        argNum++;
+
+        fail |= readCommandLineFileArgs(argNum, args);
+        fail |= canWriteFileIsFail();
+        fail |= startEngineWorkersIsFail();
+        fail |= loadOpeningBookIsFail();
+        if (fail) System.exit(1);
+
+        try {
+            new TraceReplayer(traceFile).run();
+        } catch (Exception e) {
+            System.err.println("Unable to replay " + traceFile + ": " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static void doTournament(String... args) throws IOException {
+        boolean fail = false;
+
+        int games = 0;
+        String[] commandLines = new String[4];
+
+        int argNum = 1; // arg 1 is the mode
+        // Read Number of Games
+        if (args.length > argNum) {
+            games = parsePositive(args[argNum]);
+            if (games < 1) {
+                System.err.println("Invalid Number of Games '" + args[argNum] + "': expected a positive number as argument " + argNum);
+                fail |= true;
+            }
+        } else {
+            System.err.println("Missing Number of Games Argument: expected the number of games to play as argument " + argNum);
+            fail |= true;
+        }
+        argNum++;
+
+        // Read the opening and mid/end command line files of both engines
+        for (int i = 0; i < commandLines.length; i++, argNum++) {
+            if (args.length > argNum) {
+                fail |= commandLineFileIsFail(args[argNum]);
+                if (!fail) commandLines[i] = Utils.getFileAsString(args[argNum]).trim();
+            } else {
+                System.err.println("Missing Command Line File Argument: expected the " + (i % 2 == 0 ? "opening" : "mid/end") + " command line file of engine " //
+                        + (i < 2 ? "A" : "B") + " as argument " + argNum);
+                fail |= true;
+            }
+        }
+
+        BoardLayout layout = getOnlyLayout("A tournament");
+        if (layout == null) fail |= true;
+        fail |= canWriteFileIsFail();
+        if (fail) System.exit(1);
+
+        try {
+            MoveHandler.startEngineWorkers(commandLines);
+        } catch (Exception e) {
+            System.err.println("Unable to start the engine workers: " + e.getMessage());
+            System.exit(1);
+        }
+
+        try {
+            new Tournament(layout, new Tournament.Entrant("A", commandLines[0], commandLines[1]), new Tournament.Entrant("B", commandLines[2], commandLines[3]), games).run();
+        } catch (Exception e) {
+            System.err.println("The tournament failed: " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static void doMove(String... args) throws IOException {
+        boolean fail = false;
+
+        String boardState = null;
+        int unplayedPieceCount = -1;
+
+        int argNum = 1; // arg 1 is the mode
+        // Read Board State
+        if (args.length > argNum) {
+            boardState = args[argNum];
+            if (Bitboard.tryParse(boardState) == null) {
+                System.err.println("Invalid Board State '" + boardState + "': expected the board with your pieces as white as argument " + argNum);
+                fail |= true;
+            }
+        } else {
+            System.err.println("Missing Board State Argument: expected the board with your pieces as white as argument " + argNum);
+            fail |= true;
+        }
+        argNum++;
+        // Read Unplayed Piece Count
+        if (args.length > argNum) {
+            try {
+                unplayedPieceCount = Integer.parseInt(args[argNum]);
+            } catch (NumberFormatException e) {}
+            if (unplayedPieceCount < 0) {
+                System.err.println("Invalid Unplayed Piece Count '" + args[argNum] + "': expected the number of pieces you have left to place as argument " + argNum);
+                fail |= true;
+            }
+        } else {
+            System.err.println("Missing Unplayed Piece Count Argument: expected the number of pieces you have left to place as argument " + argNum);
+            fail |= true;
+        }
+        argNum++;
+
+        fail |= readCommandLineFileArgs(argNum, args);
+        fail |= canWriteFileIsFail();
+        fail |= startEngineWorkersIsFail();
+        fail |= loadOpeningBookIsFail();
+        if (fail) System.exit(1);
+
+        Map<String, Object> gameState = new LinkedHashMap<String, Object>();
+        gameState.put("currentBoardState", boardState);
+        gameState.put("isPlayerOnesTurn", true);
+        gameState.put("playerOneUnplayedPieceCount", unplayedPieceCount);
+        try {
+            System.out.println(MoveHandler.getNextMove(new ObjectMapper().convertValue(gameState, GameState.class), unplayedPieceCount));
+        } catch (Exception e) {
+            System.err.println("Unable to compute a move: " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static int parsePositive(String arg) {
+        try {
+            return Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // the one configured board layout, or null after telling the user the purpose needs one
+    private static BoardLayout getOnlyLayout(String purpose) {
+        Collection<BoardLayout> layouts = BoardLayout.getConfiguredLayouts();
+        if (layouts.size() == 1) return layouts.iterator().next();
+        System.err.println(purpose + " needs exactly one board layout, set with -D" + BoardLayout.LAYOUT_PROPERTY);
+        return null;
+    }
+
+    private static void doMode1(String... args) throws IOException {
+        boolean fail = false;
+        if (!isSpringAvailable()) {
+            System.err.println("Mode 1 needs the full wrapper jar, the slim jar runs every other mode");
+            System.exit(1);
+        }
+        int portNumber = 8090;
+        int argNum = 1; // arg 1 is the mode
+        if (args.length > argNum) {
+            String arg = args[argNum];
+            try {
+                portNumber = Integer.parseInt(arg);
+                if (portNumber < 1024 || portNumber > 65535) {
+                    invalidPortError("" + portNumber, false);
+                    fail |= true;
+                }
+                System.getProperties().put("server.port", portNumber);
+            } catch (NumberFormatException e) {
+                invalidPortError(arg, true);
+                fail |= true;
+            }
+        }
+        argNum++;
+
+        if (Dispatcher.isEnabled()) {
+            // a dispatcher forwards the moves, its workers run the engines
+            for (Dispatcher.Worker worker : Dispatcher.getWorkers()) {
+                if (!worker.getUrl().startsWith("http://") && !worker.getUrl().startsWith("https://")) {
+                    System.err.println("Invalid Worker URL '" + worker.getUrl() + "' in -D" + Dispatcher.WORKERS_PROPERTY + ": expected http://host:port");
+                    fail |= true;
+                }
+            }
+            if (fail) System.exit(1);
+            Dispatcher.start();
+        } else {
+            fail |= readCommandLineFileArgs(argNum, args);
+            fail |= canWriteFileIsFail();
+            fail |= startEngineWorkersIsFail();
+            fail |= loadOpeningBookIsFail();
+            if (fail) System.exit(1);
+        }
+
+        WebServerApplication.start(portNumber, args);
+    }
+
+    private static boolean isSpringAvailable() {
+        try {
+            Class.forName("org.springframework.boot.SpringApplication");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static boolean readCommandLineFileArgs(int startingArgNum, String... args) throws IOException {
+        boolean fail = false;
+        int argNum = startingArgNum;
+
+        if (args.length > argNum) {
+            String arg = args[argNum];
+            fail |= commandLineFileIsFail(arg);
+            MoveHandler.openingCommandLine = Utils.getFileAsString(arg).trim();
+        } else {
+            fail |= commandLineFileIsFail(Constants.OPENING_COMMAND_LINE_FILE);
+            MoveHandler.openingCommandLine = Utils.getFileAsString(Constants.OPENING_COMMAND_LINE_FILE).trim();
+        }
+        argNum++;
+        if (args.length > argNum) {
+            String arg = args[argNum];
+            fail |= commandLineFileIsFail(arg);
+            MoveHandler.gameCommandLine = Utils.getFileAsString(arg).trim();
+        } else {
+            fail |= commandLineFileIsFail(Constants.GAME_COMMAND_LINE_FILE);
+            MoveHandler.gameCommandLine = Utils.getFileAsString(Constants.GAME_COMMAND_LINE_FILE).trim();
+        }
+        return fail;
+    }
+
+    private static boolean commandLineFileIsFail(String fileName) {
+        return commandLineFileIsFail(fileName, true);
+    }
+
+    // fallback and ladder commands are not top level, they can't have a fallback or a ladder of their own
+    private static boolean commandLineFileIsFail(String fileName, boolean topLevel) {
+        boolean fail = false;
+        File f = new File(fileName);
+        if (!f.exists() || f.isDirectory()) {
+            System.err.println("Missing required file: " + fileName);
+            fail = true;
+        }
+        try {
+            String commandLine = Utils.getFileAsString(fileName);
+            commandLine = StringUtils.trimToNull(commandLine);
+            if (commandLine == null) {
+                System.err.println("Error: " + fileName + " was empty");
+                fail = true;
+            }
+            EngineCommand engineCommand = EngineCommand.parse(commandLine);
+            if (engineCommand.usesWorkFiles()) {
+                if (!engineCommand.getCommandLine().contains(Constants.MOVE_INPUT_FILE)) {
+                    System.err.println("Error: " + fileName + " missing required placeholder '" + Constants.MOVE_INPUT_FILE + "'");
+                    fail = true;
+                }
+                if (!engineCommand.getCommandLine().contains(Constants.MOVE_OUTPUT_FILE)) {
+                    System.err.println("Error: " + fileName + " missing required placeholder '" + Constants.MOVE_OUTPUT_FILE + "'");
+                    fail = true;
+                }
+            }
+            File workDir = engineCommand.getWorkDir();
+            if (workDir != null && !workDir.isDirectory() && !workDir.mkdirs()) {
+                System.err.println("Error: " + fileName + " work directory '" + workDir + "' can not be created");
+                fail = true;
+            }
+            String fallback = engineCommand.getFallback();
+            if (fallback != null) {
+                if (topLevel) {
+                    fail |= commandLineFileIsFail(fallback, false);
+                } else {
+                    System.err.println("Error: " + fileName + " is a fallback or ladder command and can not have a fallback of its own");
+                    fail = true;
+                }
+            }
+            List<String> ladder = engineCommand.getLadder();
+            if (!ladder.isEmpty()) {
+                if (topLevel) {
+                    for (String rung : ladder)
+                        fail |= commandLineFileIsFail(rung, false);
+                } else {
+                    System.err.println("Error: " + fileName + " is a fallback or ladder command and can not have a ladder of its own");
+                    fail = true;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + fileName + " has an invalid option: " + e.getMessage());
+            fail = true;
+        } catch (IOException e) {
+            System.err.println("Error reading " + fileName + ": " + e.getMessage());
+            fail = true;
+        }
+        return fail;
+    }
+
+    public static void invalidPortError(String requestedPort, boolean notANumber) {
+        System.err.println("Invalid Port '" + requestedPort + "' specified:");
+        if (notANumber) System.err.println("\tParameter 1: Server Port was not a valid number.");
+        System.err.println("\tPlease specify a valid port number.  The valid port number range is 1024-65535");
+    }
+
+    private static boolean startEngineWorkersIsFail() {
+        try {
+            MoveHandler.startEngineWorkers();
+        } catch (Exception e) {
+            System.err.println("Unable to start the engine workers: " + e.getMessage());
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean loadOpeningBookIsFail() {
+        String bookFile = System.getProperty(OpeningBook.FILE_PROPERTY);
+        if (bookFile == null) return false;
+        try {
+            MoveHandler.openingBook = OpeningBook.load(new File(bookFile));
+            System.out.println("Loaded " + MoveHandler.openingBook.size() + " positions from opening book " + bookFile);
+            if (!MoveHandler.openingBook.isBuiltFor(EngineCommand.parse(MoveHandler.openingCommandLine).getCommandLine())) {
+                System.out.println("Warning: the opening book " + bookFile + " was built with a different opening command");
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to load the opening book " + bookFile + ": " + e.getMessage());
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean canWriteFileIsFail() {
+        try {
+            Utils.writeBoardState(Constants.MOVE_INPUT_FILE, "xxx", true);
+        } catch (IOException e) {
+            System.err.println("Insufficient file system permissions: Unable to write to files in this directory");
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,301 @@
+package net.networkdowntime.morris.tournament;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.networkdowntime.morris.Constants;
+import net.networkdowntime.morris.MoveExecutor;
+import net.networkdowntime.morris.MoveHandler;
+import net.networkdowntime.morris.board.Bitboard;
+import net.networkdowntime.morris.board.BoardLayout;
+import net.networkdowntime.morris.board.MoveGenerator;
+import net.networkdowntime.morris.dtos.GameState;
+import net.networkdowntime.morris.metrics.LatencyRecorder;
+import net.networkdowntime.morris.metrics.Metrics;
+import net.networkdowntime.morris.scheduling.TimerWheel;
+
+/**
+ * Plays two engines against each other without a game server.  Every move goes through the move handler like a move of a real
+ * game, the engine always seeing itself as white as in Mode 2, and the games are refereed here: a move that isn't legal or that
+ * doesn't come loses the game, a player down to two pieces or without a legal move loses, and a game still going after
+ * morris.tournament.maxMoves is a draw.
+ *
+ * Many games are played at once, more than the move executor runs moves, so every core is busy while a game's next move is
+ * queued; a game holds no thread between moves.  Each game starts with a few random legal moves so deterministic engines don't
+ * play the same game over and over, and every start is played twice with the colours swapped.
+ *
+ * Settings (Java system properties):
+ *      morris.tournament.concurrency:    games played at the same time (default: twice the move parallelism)
+ *      morris.tournament.openingPlies:   random legal moves each game starts with (default: 2)
+ *      morris.tournament.maxMoves:       moves after which a game is drawn (default: 200)
+ *      morris.tournament.seed:           seed of the random starting moves, the same seed plays the same starts (default: 1)
+ *      morris.tournament.reportInterval: seconds between progress reports (default: 10)
+ *
+ * @author rwiles
+ *
+ */
+public class Tournament {
+    static final Logger log = LogManager.getLogger(Tournament.class);
+
+    public static final String CONCURRENCY_PROPERTY = "morris.tournament.concurrency";
+    public static final String OPENING_PLIES_PROPERTY = "morris.tournament.openingPlies";
+    public static final String MAX_MOVES_PROPERTY = "morris.tournament.maxMoves";
+    public static final String SEED_PROPERTY = "morris.tournament.seed";
+    public static final String REPORT_INTERVAL_PROPERTY = "morris.tournament.reportInterval";
+
+    private static final int openingPlies = Math.max(0, Integer.getInteger(OPENING_PLIES_PROPERTY, 2));
+    private static final int maxMoves = Math.max(1, Integer.getInteger(MAX_MOVES_PROPERTY, 200));
+    private static final long seed = Long.getLong(SEED_PROPERTY, 1);
+    private static final long reportInterval = Math.max(1, Long.getLong(REPORT_INTERVAL_PROPERTY, 10));
+
+    private static final int WIN = 0;
+    private static final int DRAW = 1;
+    private static final int LOSS = 2;
+    private static final long RETRY_DELAY = 20; // milliseconds before a move the move executor turned away is asked for again
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BoardLayout layout;
+    private final Entrant[] entrants;
+    private final int gameCount;
+    private final int concurrency;
+    private final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+    private int gamesStarted = 0;
+    private int gamesFinished = 0;
+    private long movesPlayed = 0;
+
+    /**
+     * An engine in the tournament: its command lines for the two phases and what it has done so far.
+     */
+    public static class Entrant {
+        final String name;
+        final String openingCommandLine;
+        final String gameCommandLine;
+        final LatencyRecorder openingTimes = new LatencyRecorder();
+        final LatencyRecorder midEndTimes = new LatencyRecorder();
+        final int[][] results = new int[2][3]; // [as white, as black][win, draw, loss]
+        int forfeits = 0;
+
+        public Entrant(String name, String openingCommandLine, String gameCommandLine) {
+            this.name = name;
+            this.openingCommandLine = openingCommandLine;
+            this.gameCommandLine = gameCommandLine;
+        }
+    }
+
+    public Tournament(BoardLayout layout, Entrant first, Entrant second, int gameCount) {
+        this.layout = layout;
+        this.entrants = new Entrant[] { first, second };
+        this.gameCount = gameCount;
+        int defaultConcurrency = 2 * MoveExecutor.getParallelism();
+        // every game has at most one move queued, so the move executor never turns one away
+        int maxConcurrency = MoveExecutor.getParallelism() + MoveExecutor.getQueueCapacity();
+        this.concurrency = Math.max(1, Math.min(maxConcurrency, Math.min(gameCount, Integer.getInteger(CONCURRENCY_PROPERTY, defaultConcurrency))));
+    }
+
+    public void run() throws Exception {
+        System.out.println("Playing " + gameCount + " games of '" + layout.getName() + "', " + concurrency + " at a time with a move parallelism of " + MoveExecutor.getParallelism());
+        for (Entrant entrant : entrants)
+            System.out.println("  " + entrant.name + ": " + entrant.openingCommandLine.replace('\n', ' ') + " / " + entrant.gameCommandLine.replace('\n', ' '));
+
+        long startTime = System.nanoTime();
+        synchronized (this) {
+            while (gamesStarted < concurrency)
+                startGame(gamesStarted++);
+        }
+
+        while (true) {
+            try {
+                done.get(reportInterval, TimeUnit.SECONDS);
+                break;
+            } catch (TimeoutException e) {
+                double seconds = (System.nanoTime() - startTime) / 1e9;
+                synchronized (this) {
+                    System.out.println(String.format("  %.0fs: %d of %d games played, %.2f games/s, %.1f moves/s", seconds, gamesFinished, gameCount, gamesFinished / seconds, movesPlayed / seconds));
+                }
+            }
+        }
+        report(System.nanoTime() - startTime);
+    }
+
+    // the caller holds the tournament's lock
+    private void startGame(int number) {
+        // both games of a pair start from the same position, the first entrant is white in the even one
+        Game game = new Game(number, entrants[number % 2], entrants[(number + 1) % 2]);
+        Random random = new Random(seed * 1000003 + number / 2);
+        for (int ply = 0; ply < openingPlies; ply++) {
+            List<Bitboard> legalMoves = game.getLegalMoves();
+            if (legalMoves.isEmpty()) break;
+            game.apply(legalMoves.get(random.nextInt(legalMoves.size())));
+        }
+        Entrant winner = game.adjudicate();
+        if (game.isOver()) finishGame(game, winner, false);
+        else nextMove(game);
+    }
+
+    private void nextMove(final Game game) {
+        final Entrant entrant = game.getEntrantToMove();
+        final boolean white = game.isWhiteToMove;
+        final int unplayedPieceCount = white ? game.whiteUnplayed : game.blackUnplayed;
+        // the engine plays white, so black's board is swapped for it
+        final String boardState = white ? game.board.toString() : game.board.swapColors().toString();
+
+        final long startTime = System.nanoTime();
+        CompletableFuture<String> move;
+        try {
+            String commandLine = unplayedPieceCount > 0 ? entrant.openingCommandLine : entrant.gameCommandLine;
+            move = MoveHandler.submitNextMove(toGameState(game, boardState, unplayedPieceCount), unplayedPieceCount, commandLine);
+        } catch (RejectedExecutionException e) {
+            TimerWheel.shared().delay(RETRY_DELAY).thenRun(() -> nextMove(game));
+            return;
+        }
+
+        move.whenComplete((nextMove, error) -> {
+            long elapsed = System.nanoTime() - startTime;
+            (unplayedPieceCount > 0 ? entrant.openingTimes : entrant.midEndTimes).recordNanos(elapsed);
+
+            Bitboard played = nextMove == null ? null : Bitboard.tryParse(nextMove.trim());
+            if (played != null && !white) played = played.swapColors();
+            if (error != null || played == null || !game.getLegalMoves().contains(played)) {
+                log.warn("Game " + game.number + ": " + entrant.name + " forfeits, " + (error != null ? "no move: " + error.getMessage() : "illegal move " + nextMove + " from " + boardState));
+                finishGame(game, game.getEntrantWaiting(), true);
+                return;
+            }
+
+            game.apply(played);
+            Entrant winner = game.adjudicate();
+            if (game.isOver()) finishGame(game, winner, false);
+            else nextMove(game);
+        });
+    }
+
+    // the game state's id type depends on the common library's version, so it's built the way the game server's JSON is read
+    private GameState toGameState(Game game, String boardState, int unplayedPieceCount) {
+        Map<String, Object> gameState = new LinkedHashMap<String, Object>();
+        gameState.put("id", game.number);
+        gameState.put("currentBoardState", boardState);
+        gameState.put("numberOfMovesMade", game.movesMade);
+        gameState.put("isPlayerOnesTurn", true);
+        gameState.put("playerOneUnplayedPieceCount", unplayedPieceCount);
+        return objectMapper.convertValue(gameState, GameState.class);
+    }
+
+    // winner is null for a draw
+    private synchronized void finishGame(Game game, Entrant winner, boolean forfeited) {
+        movesPlayed += game.movesMade;
+        if (forfeited) game.getEntrantToMove().forfeits++;
+        game.white.results[0][winner == null ? DRAW : winner == game.white ? WIN : LOSS]++;
+        game.black.results[1][winner == null ? DRAW : winner == game.black ? WIN : LOSS]++;
+
+        gamesFinished++;
+        if (gamesStarted < gameCount) startGame(gamesStarted++);
+        else if (gamesFinished == gameCount) done.complete(null);
+    }
+
+    private synchronized void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.println(String.format("Tournament of %d games in %.1fs: %.2f games/s, %d moves (%.1f moves/s, %.1f a game)", gamesFinished, seconds, gamesFinished / seconds, //
+                movesPlayed, movesPlayed / seconds, movesPlayed / (double) Math.max(1, gamesFinished)));
+        for (Entrant entrant : entrants) {
+            int[] total = new int[3];
+            for (int[] colour : entrant.results)
+                for (int result = 0; result < 3; result++)
+                    total[result] += colour[result];
+            System.out.println("  " + entrant.name + ": " + results(total) + "; as white " + results(entrant.results[0]) + "; as black " + results(entrant.results[1]) + "; forfeits " + entrant.forfeits);
+            System.out.println("    Opening move time: " + entrant.openingTimes.snapshot(false));
+            System.out.println("    Mid/End move time: " + entrant.midEndTimes.snapshot(false));
+        }
+
+        // commands with a @ladder: which rung answered, to tune the ladder by
+        Map<String, Long> ladderWins = Metrics.LADDER_WINS.getByLabel();
+        if (ladderWins.isEmpty() && Metrics.LADDER_SKIPPED.get() == 0) return;
+        System.out.println("  Ladder wins, " + Metrics.LADDER_SKIPPED.get() + " moves run without their ladder for want of spare cores:");
+        for (Map.Entry<String, Long> entry : ladderWins.entrySet())
+            System.out.println(String.format("    %8d  %s", entry.getValue(), entry.getKey()));
+    }
+
+    private static String results(int[] results) {
+        int games = Math.max(1, results[WIN] + results[DRAW] + results[LOSS]);
+        return String.format("won %d (%.1f%%), drawn %d (%.1f%%), lost %d (%.1f%%)", results[WIN], results[WIN] * 100.0 / games, results[DRAW], results[DRAW] * 100.0 / games, //
+                results[LOSS], results[LOSS] * 100.0 / games);
+    }
+
+    /**
+     * One game, moved along by whichever move executor thread answered its last move.
+     */
+    private class Game {
+        final int number;
+        final Entrant white;
+        final Entrant black;
+        Bitboard board;
+        boolean isWhiteToMove = true;
+        int whiteUnplayed = layout.getPiecesPerPlayer();
+        int blackUnplayed = layout.getPiecesPerPlayer();
+        int movesMade = 0;
+        boolean over = false;
+
+        Game(int number, Entrant white, Entrant black) {
+            this.number = number;
+            this.white = white;
+            this.black = black;
+            char[] empty = new char[layout.getPositionCount()];
+            Arrays.fill(empty, Constants.EMPTY);
+            this.board = Bitboard.parse(new String(empty));
+        }
+
+        Entrant getEntrantToMove() {
+            return isWhiteToMove ? white : black;
+        }
+
+        Entrant getEntrantWaiting() {
+            return isWhiteToMove ? black : white;
+        }
+
+        List<Bitboard> getLegalMoves() {
+            char player = isWhiteToMove ? Constants.WHITE : Constants.BLACK;
+            char opponent = isWhiteToMove ? Constants.BLACK : Constants.WHITE;
+            int unplayed = isWhiteToMove ? whiteUnplayed : blackUnplayed;
+            if (unplayed > 0) return MoveGenerator.getPlacements(layout, board, player, opponent);
+            return MoveGenerator.getSlides(layout, board, player, opponent);
+        }
+
+        void apply(Bitboard move) {
+            if (isWhiteToMove) whiteUnplayed = Math.max(0, whiteUnplayed - 1);
+            else blackUnplayed = Math.max(0, blackUnplayed - 1);
+            board = move;
+            movesMade++;
+            isWhiteToMove = !isWhiteToMove;
+        }
+
+        /**
+         * Ends the game if the player to move has lost or the game ran too long, and returns the winner, null for a draw.
+         */
+        Entrant adjudicate() {
+            char player = isWhiteToMove ? Constants.WHITE : Constants.BLACK;
+            int unplayed = isWhiteToMove ? whiteUnplayed : blackUnplayed;
+            if (board.countPieces(player) + unplayed < 3 || getLegalMoves().isEmpty()) {
+                over = true;
+                return getEntrantWaiting();
+            }
+            if (movesMade >= maxMoves) over = true;
+            return null;
+        }
+
+        boolean isOver() {
+            return over;
+        }
+    }
+}
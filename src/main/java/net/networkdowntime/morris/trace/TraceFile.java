@@ -0,0 +1,89 @@
+package net.networkdowntime.morris.trace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * An append-only file of trace records behind a header (magic, version).  Records are written whole and flushed one at a time,
+ * so a wrapper that dies mid-write leaves at most a cut short last record, which reading skips.
+ *
+ * @author rwiles
+ *
+ */
+class TraceFile {
+    private static final int MAGIC = 0x54524345; // TRCE
+    private static final int VERSION = 1;
+
+    static class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        Writer(File file) throws IOException {
+            if (file.length() > 0) {
+                try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                    checkHeader(in, file);
+                }
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            if (file.length() == 0) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.flush();
+            }
+        }
+
+        synchronized void write(TraceRecord record) throws IOException {
+            record.write(out);
+            out.flush();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    static class Reader implements Closeable {
+        private final DataInputStream in;
+
+        Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            try {
+                checkHeader(in, file);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         * The next record, or null at the end of the file.
+         */
+        TraceRecord next() throws IOException {
+            try {
+                return TraceRecord.read(in);
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static void checkHeader(DataInputStream in, File file) throws IOException {
+        try {
+            if (in.readInt() == MAGIC && in.readInt() == VERSION) return;
+        } catch (EOFException e) {}
+        throw new IOException(file + " isn't a version " + VERSION + " move trace");
+    }
+}
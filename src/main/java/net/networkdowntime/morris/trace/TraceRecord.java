@@ -0,0 +1,109 @@
+package net.networkdowntime.morris.trace;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.networkdowntime.morris.board.Bitboard;
+
+/**
+ * One answered move of a trace file.  The board state is the one the engine was given, with the engine as white.
+ *
+ * Record layout: requested at (epoch milliseconds, 8 bytes), game id (8 bytes, -1 when unknown), move number (4 bytes, -1 when
+ * unknown), unplayed piece count (1 byte), queue wait and move time (microseconds, 4 bytes each), board state, move.
+ * A board state that fits a bitboard is its length (1 byte), its empty character (1 byte) and 2 bits per position, 0 for empty,
+ * 1 for white and 2 for black; any other board state is a length of -1 followed by the text.
+ *
+ * @author rwiles
+ *
+ */
+public class TraceRecord {
+    final long requestedAt;
+    final long gameId;
+    final int moveNumber;
+    final int unplayedPieceCount;
+    final long queueWaitMicros;
+    final long moveMicros;
+    final String boardState;
+    final String move;
+
+    TraceRecord(long requestedAt, long gameId, int moveNumber, int unplayedPieceCount, long queueWaitMicros, long moveMicros, String boardState, String move) {
+        this.requestedAt = requestedAt;
+        this.gameId = gameId;
+        this.moveNumber = moveNumber;
+        this.unplayedPieceCount = unplayedPieceCount;
+        this.queueWaitMicros = queueWaitMicros;
+        this.moveMicros = moveMicros;
+        this.boardState = boardState;
+        this.move = move;
+    }
+
+    boolean isOpening() {
+        return unplayedPieceCount > 0;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeLong(requestedAt);
+        out.writeLong(gameId);
+        out.writeInt(moveNumber);
+        out.writeByte(Math.min(unplayedPieceCount, Byte.MAX_VALUE));
+        out.writeInt((int) Math.min(queueWaitMicros, Integer.MAX_VALUE));
+        out.writeInt((int) Math.min(moveMicros, Integer.MAX_VALUE));
+        writeBoard(out, boardState);
+        writeBoard(out, move);
+    }
+
+    static TraceRecord read(DataInput in) throws IOException {
+        long requestedAt = in.readLong();
+        long gameId = in.readLong();
+        int moveNumber = in.readInt();
+        int unplayedPieceCount = in.readByte();
+        long queueWaitMicros = in.readInt();
+        long moveMicros = in.readInt();
+        String boardState = readBoard(in);
+        String move = readBoard(in);
+        return new TraceRecord(requestedAt, gameId, moveNumber, unplayedPieceCount, queueWaitMicros, moveMicros, boardState, move);
+    }
+
+    private static void writeBoard(DataOutput out, String boardState) throws IOException {
+        Bitboard board = Bitboard.tryParse(boardState);
+        if (board == null || board.getEmptyChar() > 0xff) {
+            out.writeByte(-1);
+            out.writeUTF(boardState);
+            return;
+        }
+
+        out.writeByte(board.length());
+        out.writeByte(board.getEmptyChar());
+        for (int i = 0; i < board.length(); i += 4) {
+            int packed = 0;
+            for (int j = 0; j < 4 && i + j < board.length(); j++) {
+                long bit = 1L << (i + j);
+                int value = (board.getWhite() & bit) != 0 ? 1 : (board.getBlack() & bit) != 0 ? 2 : 0;
+                packed |= value << (2 * j);
+            }
+            out.writeByte(packed);
+        }
+    }
+
+    private static String readBoard(DataInput in) throws IOException {
+        int length = in.readByte();
+        if (length < 0) return in.readUTF();
+
+        char empty = (char) in.readUnsignedByte();
+        long white = 0;
+        long black = 0;
+        for (int i = 0; i < length; i += 4) {
+            int packed = in.readUnsignedByte();
+            for (int j = 0; j < 4 && i + j < length; j++) {
+                int value = (packed >> (2 * j)) & 3;
+                if (value == 1) white |= 1L << (i + j);
+                else if (value == 2) black |= 1L << (i + j);
+            }
+        }
+        char[] emptyBoard = new char[length];
+        Arrays.fill(emptyBoard, empty);
+        return Bitboard.parse(new String(emptyBoard)).withPieces(white, black).toString();
+    }
+}
@@ -0,0 +1,79 @@
+package net.networkdowntime.morris.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.networkdowntime.morris.dtos.GameState;
+
+/**
+ * Appends every move the wrapper answers to a trace file when one is configured, so the moves of real games can be fed back
+ * through the move pipeline by the replay mode after the engine commands or the wrapper's settings change.  Moves computed
+ * while pondering aren't recorded.  When the trace file can't be written recording stops and the moves go on.
+ *
+ * Settings (Java system properties):
+ *      morris.trace.file: the file to append the trace to (default: none, nothing is recorded)
+ *
+ * @author rwiles
+ *
+ */
+public class TraceRecorder {
+    static final Logger log = LogManager.getLogger(TraceRecorder.class);
+
+    public static final String FILE_PROPERTY = "morris.trace.file";
+
+    private static final String fileName = System.getProperty(FILE_PROPERTY);
+    private static volatile TraceFile.Writer writer = open();
+
+    public static boolean isEnabled() {
+        return writer != null;
+    }
+
+    /**
+     * The trace file being written, or null.
+     */
+    public static File getFile() {
+        return isEnabled() ? new File(fileName) : null;
+    }
+
+    /**
+     * Records an answered move.
+     *
+     * @param requestedAt System.currentTimeMillis() when the move was asked for
+     * @param queueWaitNanos how long the move waited for the move executor
+     * @param moveNanos how long the move took once it ran
+     */
+    public static void record(GameState gameState, int unplayedPieceCount, long requestedAt, long queueWaitNanos, long moveNanos, String move) {
+        TraceFile.Writer traceWriter = writer;
+        if (traceWriter == null || move == null) return;
+
+        TraceRecord record = new TraceRecord(requestedAt, toLong(gameState.id), (int) toLong(gameState.numberOfMovesMade), unplayedPieceCount, //
+                TimeUnit.NANOSECONDS.toMicros(queueWaitNanos), TimeUnit.NANOSECONDS.toMicros(moveNanos), gameState.currentBoardState, move);
+        try {
+            traceWriter.write(record);
+        } catch (IOException e) {
+            log.error("Unable to write to the move trace " + fileName + ", no longer recording: " + e.getMessage());
+            writer = null;
+        }
+    }
+
+    // the game state's numbers are boxed or not depending on the common library's version
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : -1;
+    }
+
+    private static TraceFile.Writer open() {
+        if (fileName == null) return null;
+        try {
+            TraceFile.Writer traceWriter = new TraceFile.Writer(new File(fileName));
+            log.info("Recording moves to " + fileName);
+            return traceWriter;
+        } catch (IOException e) {
+            log.error("Unable to open the move trace " + fileName + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
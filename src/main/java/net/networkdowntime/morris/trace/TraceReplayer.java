@@ -0,0 +1,154 @@
+package net.networkdowntime.morris.trace;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.networkdowntime.morris.MoveExecutor;
+import net.networkdowntime.morris.MoveHandler;
+import net.networkdowntime.morris.dtos.GameState;
+import net.networkdowntime.morris.metrics.LatencyRecorder;
+
+/**
+ * Feeds the moves of a trace file back through the move pipeline, book, cache, engine commands and fallbacks alike, and reports
+ * the latency distributions of the replay next to the recorded ones and how many moves came out different from the recording.
+ *
+ * At full speed the moves are kept queued up to the move executor's parallelism, so the engines never wait on the replay.
+ * Paced, every move is asked for at the same offset from the start as it was recorded, so the queueing of the recorded games
+ * comes back too; a move the move executor turns away is counted as rejected.  Replaying with the move cache on answers
+ * positions that come up again from the cache, -Dmorris.cache.enabled=false measures the engines alone.
+ *
+ * Settings (Java system properties):
+ *      morris.replay.paced:          true asks for the moves at the recorded pacing instead of at full speed (default: false)
+ *      morris.replay.reportInterval: seconds between progress reports (default: 10)
+ *
+ * @author rwiles
+ *
+ */
+public class TraceReplayer {
+    static final Logger log = LogManager.getLogger(TraceReplayer.class);
+
+    public static final String PACED_PROPERTY = "morris.replay.paced";
+    public static final String REPORT_INTERVAL_PROPERTY = "morris.replay.reportInterval";
+
+    private static final boolean paced = Boolean.getBoolean(PACED_PROPERTY);
+    private static final long reportInterval = TimeUnit.SECONDS.toNanos(Math.max(1, Long.getLong(REPORT_INTERVAL_PROPERTY, 10)));
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final File traceFile;
+    private final Semaphore inFlight = new Semaphore(MoveExecutor.getParallelism());
+
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder differing = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LatencyRecorder recordedTimes = new LatencyRecorder();
+    private final LatencyRecorder recordedOpeningTimes = new LatencyRecorder();
+    private final LatencyRecorder recordedMidEndTimes = new LatencyRecorder();
+    private final LatencyRecorder replayTimes = new LatencyRecorder();
+    private final LatencyRecorder replayOpeningTimes = new LatencyRecorder();
+    private final LatencyRecorder replayMidEndTimes = new LatencyRecorder();
+
+    public TraceReplayer(File traceFile) {
+        this.traceFile = traceFile;
+    }
+
+    public void run() throws Exception {
+        System.out.println("Replaying " + traceFile + (paced ? " at the recorded pacing" : " at full speed") + " with a move parallelism of " + MoveExecutor.getParallelism());
+        long startTime = System.nanoTime();
+        long nextReport = startTime + reportInterval;
+        long firstRequestedAt = -1;
+        int submitted = 0;
+
+        try (TraceFile.Reader reader = new TraceFile.Reader(traceFile)) {
+            for (TraceRecord record = reader.next(); record != null; record = reader.next()) {
+                if (paced) {
+                    if (firstRequestedAt < 0) firstRequestedAt = record.requestedAt;
+                    long dueAt = startTime + TimeUnit.MILLISECONDS.toNanos(record.requestedAt - firstRequestedAt);
+                    long wait = dueAt - System.nanoTime();
+                    if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                } else {
+                    inFlight.acquire();
+                }
+                replay(record);
+                submitted++;
+
+                if (System.nanoTime() - nextReport > 0) {
+                    System.out.println(String.format("  %ds: %d moves asked for, %d answered", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime), submitted, replayed.sum()));
+                    nextReport += reportInterval;
+                }
+            }
+        }
+
+        if (!paced) inFlight.acquire(MoveExecutor.getParallelism());
+        else while (replayed.sum() + failed.sum() + rejected.sum() < submitted)
+            Thread.sleep(10);
+        report(submitted, System.nanoTime() - startTime);
+    }
+
+    private void replay(final TraceRecord record) throws Exception {
+        long recordedNanos = TimeUnit.MICROSECONDS.toNanos(record.queueWaitMicros + record.moveMicros);
+        recordedTimes.recordNanos(recordedNanos);
+        (record.isOpening() ? recordedOpeningTimes : recordedMidEndTimes).recordNanos(recordedNanos);
+
+        final long startTime = System.nanoTime();
+        CompletableFuture<String> move;
+        try {
+            move = MoveHandler.submitNextMove(toGameState(record), record.unplayedPieceCount);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            if (!paced) inFlight.release();
+            return;
+        }
+
+        move.whenComplete((nextMove, error) -> {
+            long elapsed = System.nanoTime() - startTime;
+            if (error != null) {
+                failed.increment();
+                log.debug("Replaying game " + record.gameId + " move " + record.moveNumber + " failed: " + error.getMessage());
+            } else {
+                replayed.increment();
+                if (!record.move.equals(nextMove)) differing.increment();
+                replayTimes.recordNanos(elapsed);
+                (record.isOpening() ? replayOpeningTimes : replayMidEndTimes).recordNanos(elapsed);
+            }
+            if (!paced) inFlight.release();
+        });
+    }
+
+    // the game state's id type depends on the common library's version, so it's built the way the game server's JSON is read
+    private GameState toGameState(TraceRecord record) {
+        Map<String, Object> gameState = new LinkedHashMap<String, Object>();
+        gameState.put("id", record.gameId);
+        gameState.put("currentBoardState", record.boardState);
+        gameState.put("numberOfMovesMade", record.moveNumber);
+        gameState.put("isPlayerOnesTurn", true);
+        gameState.put("playerOneUnplayedPieceCount", record.unplayedPieceCount);
+        return objectMapper.convertValue(gameState, GameState.class);
+    }
+
+    private void report(int submitted, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long answered = replayed.sum();
+        System.out.println();
+        System.out.println("Replay of " + traceFile + ": " + submitted + " moves in " + String.format("%.1f", seconds) + "s (" + String.format("%.1f", submitted / seconds) + " moves/s)");
+        System.out.println("  Answered:         " + answered + "; different from the recording: " + differing.sum() //
+                + String.format(" (%.2f%%)", answered == 0 ? 0 : differing.sum() * 100.0 / answered) + "; failed: " + failed.sum() + "; turned away: " + rejected.sum());
+        System.out.println("  Recorded:         " + recordedTimes.snapshot(false));
+        System.out.println("  Replayed:         " + replayTimes.snapshot(false));
+        System.out.println("  Recorded opening: " + recordedOpeningTimes.snapshot(false));
+        System.out.println("  Replayed opening: " + replayOpeningTimes.snapshot(false));
+        System.out.println("  Recorded mid/end: " + recordedMidEndTimes.snapshot(false));
+        System.out.println("  Replayed mid/end: " + replayMidEndTimes.snapshot(false));
+    }
+}
@@ -0,0 +1,130 @@
+package net.networkdowntime.morris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonParseException;
+
+import net.networkdowntime.morris.dtos.GameState;
+
+/**
+ * Which games GameListReader keeps, and that the games it keeps are bound the same whichever way the list is laid out.
+ *
+ * @author rwiles
+ *
+ */
+public class GameListReaderTest {
+    private static final String USER = "me";
+
+    // our turn as player one, played here
+    private static final String OURS = "{'id':1,'currentBoardState':'xxxxxxxxxxxxxxxxxxxxxxxx','numberOfMovesMade':0,'isPlayerOnesTurn':true,"
+            + "'playerOneUsername':'me','playerTwoUsername':'them','playerOneIsAutomated':true,'playerTwoIsAutomated':false,"
+            + "'playerOneUnplayedPieceCount':9,'playerTwoUnplayedPieceCount':9}";
+
+    @Test
+    public void keepsOurTurn() throws IOException {
+        List<GameState> games = GameListReader.readAutomated(json("[" + OURS + "]"), USER);
+        assertEquals(ids(1), ids(games));
+        GameState game = games.get(0);
+        assertEquals("xxxxxxxxxxxxxxxxxxxxxxxx", game.currentBoardState);
+        assertEquals("them", game.playerTwoUsername);
+        assertEquals(9, game.playerOneUnplayedPieceCount);
+        assertEquals(9, game.playerTwoUnplayedPieceCount);
+    }
+
+    @Test
+    public void keepsOurTurnAsPlayerTwo() throws IOException {
+        String game = "{'id':2,'isPlayerOnesTurn':false,'playerOneUsername':'them','playerTwoUsername':'me','playerOneIsAutomated':true,"
+                + "'playerTwoIsAutomated':true,'playerTwoAiEndpoint':''}";
+        assertEquals(ids(2), ids(GameListReader.readAutomated(json("[" + game + "]"), USER)));
+    }
+
+    @Test
+    public void skipsGamesThatArentOurs() throws IOException {
+        String list = "[" //
+                + "{'id':2,'isPlayerOnesTurn':true,'playerOneUsername':'them','playerOneIsAutomated':true}," // someone else's
+                + "{'id':3,'isPlayerOnesTurn':true,'playerOneUsername':'me','playerOneIsAutomated':false}," // played by hand
+                + "{'id':4,'isPlayerOnesTurn':true,'playerOneUsername':'me','playerOneIsAutomated':true,'playerOneAiEndpoint':'http://elsewhere'},"
+                + "{'id':5,'isPlayerOnesTurn':false,'playerOneUsername':'me','playerOneIsAutomated':true}," // their turn
+                + OURS + "]";
+        assertEquals(ids(1), ids(GameListReader.readAutomated(json(list), USER)));
+        assertEquals(ids(2, 3, 4, 5), ids(GameListReader.readNotAutomated(json(list), USER)));
+    }
+
+    @Test
+    public void readsTheFieldsInAnyOrder() throws IOException {
+        String ours = "{'playerOneIsAutomated':true,'playerOneUsername':'me','id':5,'isPlayerOnesTurn':true}";
+        String theirs = "{'playerOneUsername':'them','playerOneIsAutomated':true,'isPlayerOnesTurn':true,'id':6}";
+        // the turn comes last, so the game can't be ruled out by the side whose turn it is until the end
+        String turnLast = "{'playerTwoUsername':'me','playerTwoIsAutomated':true,'playerOneUsername':'them','id':7,'isPlayerOnesTurn':false}";
+        assertEquals(ids(5, 7), ids(GameListReader.readAutomated(json("[" + ours + "," + theirs + "," + turnLast + "]"), USER)));
+    }
+
+    @Test
+    public void ignoresFieldsNestedInUnknownFields() throws IOException {
+        // the usernames inside the nested object and array aren't the game's, a game is kept or skipped on its own fields
+        String kept = "{'id':8,'history':[{'playerOneUsername':'them'},['playerOneUsername',false]],'isPlayerOnesTurn':true,"
+                + "'settings':{'playerOneIsAutomated':false,'deeper':{'playerOneUsername':'them'}},'playerOneUsername':'me',"
+                + "'playerOneIsAutomated':true,'rating':12345678901234567890,'score':1.5,'note':null}";
+        String skipped = "{'id':9,'history':[{'playerOneUsername':'me'}],'isPlayerOnesTurn':true,'playerOneUsername':'them',"
+                + "'playerOneIsAutomated':true,'settings':{'playerOneUsername':'me'}}";
+        List<GameState> games = GameListReader.readAutomated(json("[" + kept + "," + skipped + "]"), USER);
+        assertEquals(ids(8), ids(games));
+        assertEquals("me", games.get(0).playerOneUsername);
+        assertNull(games.get(0).currentBoardState);
+    }
+
+    @Test
+    public void skipsNullsAndValuesThatArentGames() throws IOException {
+        assertEquals(ids(1), ids(GameListReader.readAutomated(json("[null,3,'game',[" + OURS + "]," + OURS + "]"), USER)));
+    }
+
+    @Test
+    public void keepsOurGamesWhoeversTurnItIs() throws IOException {
+        String theirTurn = "{'id':2,'isPlayerOnesTurn':false,'playerOneUsername':'me','playerOneIsAutomated':true}";
+        String notHere = "{'id':3,'isPlayerOnesTurn':true,'playerOneUsername':'me','playerOneIsAutomated':false}";
+        assertEquals(ids(1, 2), ids(GameListReader.readPlayedHere(json("[" + OURS + "," + theirTurn + "," + notHere + "]"), USER)));
+    }
+
+    @Test
+    public void readsAnEmptyList() throws IOException {
+        assertEquals(ids(), ids(GameListReader.readAutomated(json("[]"), USER)));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void failsOnAListThatIsntOne() throws IOException {
+        GameListReader.readAutomated(json("{'id':1}"), USER);
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void failsOnATruncatedList() throws IOException {
+        GameListReader.readAutomated(json("[" + OURS + ",{'id':2,'history':[1,2"), USER);
+    }
+
+    private static InputStream json(String singleQuoted) {
+        return new ByteArrayInputStream(singleQuoted.replace('\'', '"').getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> ids(int... ids) {
+        List<String> list = new ArrayList<String>();
+        for (int id : ids)
+            list.add(String.valueOf(id));
+        return list;
+    }
+
+    private static List<String> ids(List<GameState> games) {
+        List<String> list = new ArrayList<String>();
+        for (GameState game : games)
+            list.add(String.valueOf(game.id));
+        return list;
+    }
+}
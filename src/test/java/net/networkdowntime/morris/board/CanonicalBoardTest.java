@@ -0,0 +1,87 @@
+package net.networkdowntime.morris.board;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.networkdowntime.morris.Constants;
+
+/**
+ * Canonicalizing boards under the nine men's morris symmetries and mapping moves between the orientations.
+ *
+ * @author rwiles
+ *
+ */
+public class CanonicalBoardTest {
+    // no symmetry maps it onto itself, so every orientation is a different board state
+    private static final String BOARD = "WxxxBxxxxxxWxxxxxxxxBxxx";
+
+    private static BoardLayout layout;
+
+    @BeforeClass
+    public static void configureLayout() {
+        // the configured layouts are loaded once, the first time BoardLayout is used
+        System.setProperty(BoardLayout.LAYOUT_PROPERTY, "nine-mens-morris");
+        layout = BoardLayout.forBoardLength(BOARD.length());
+        assertNotNull(layout);
+    }
+
+    @Test
+    public void findsEverySymmetry() {
+        // the square's four rotations and four reflections, each with or without swapping the inner and outer rings
+        assertEquals(16, layout.getSymmetries().length);
+    }
+
+    @Test
+    public void everyOrientationHasTheSameCanonicalBoard() {
+        Bitboard board = Bitboard.parse(BOARD);
+        String canonical = CanonicalBoard.of(BOARD).getBoardState();
+        for (int[] symmetry : layout.getSymmetries()) {
+            String orientation = board.permute(symmetry).toString();
+            assertEquals(canonical, CanonicalBoard.of(orientation).getBoardState());
+            assertTrue(canonical.compareTo(orientation) <= 0);
+        }
+    }
+
+    @Test
+    public void mapsMovesBackForEverySymmetry() {
+        Bitboard board = Bitboard.parse(BOARD);
+        CanonicalBoard asked = CanonicalBoard.of(BOARD);
+        List<Bitboard> placements = MoveGenerator.getPlacements(layout, board, Constants.WHITE, Constants.BLACK);
+
+        for (int[] symmetry : layout.getSymmetries()) {
+            Bitboard orientation = board.permute(symmetry);
+            CanonicalBoard other = CanonicalBoard.of(orientation.toString());
+            List<Bitboard> otherPlacements = MoveGenerator.getPlacements(layout, orientation, Constants.WHITE, Constants.BLACK);
+
+            for (Bitboard move : placements) {
+                // a move remembered for one orientation answers the same position in every other
+                Bitboard mapped = other.toOriginal(asked.toCanonical(move));
+                assertEquals(move.permute(symmetry), mapped);
+                assertTrue(otherPlacements.contains(mapped));
+                assertEquals(move.toString(), asked.toOriginal(asked.toCanonical(move.toString())));
+            }
+        }
+    }
+
+    @Test
+    public void boardsWithoutALayoutAreTheirOwnCanonicalBoard() {
+        CanonicalBoard canonical = CanonicalBoard.of("xxWxB");
+        assertEquals("xxWxB", canonical.getBoardState());
+        assertEquals("WxWxB", canonical.toCanonical("WxWxB"));
+        assertEquals("WxWxB", canonical.toOriginal("WxWxB"));
+    }
+
+    @Test
+    public void boardsThatDontFitABitboardAreKeptAsTheyAre() {
+        CanonicalBoard canonical = CanonicalBoard.of("Wx.xBxxxxxxWxxxxxxxxBxxx");
+        assertNull(canonical.getBitboard());
+        assertEquals("Wx.xBxxxxxxWxxxxxxxxBxxx", canonical.getBoardState());
+    }
+}
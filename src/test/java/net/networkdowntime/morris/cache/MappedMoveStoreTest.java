@@ -0,0 +1,98 @@
+package net.networkdowntime.morris.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The slots of the move cache file: finding a move again, probing past collisions and overwriting a full probe sequence.
+ *
+ * @author rwiles
+ *
+ */
+public class MappedMoveStoreTest {
+    private static final int SLOTS = 16; // the fewest a store has, one probe sequence covers the whole table
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsAMoveAgain() throws IOException {
+        MappedMoveStore store = new MappedMoveStore(folder.newFile(), SLOTS);
+        assertNull(store.get(42, "xxxxxxxx"));
+        store.put(42, "xxxxxxxx", "Wxxxxxxx");
+        assertEquals("Wxxxxxxx", store.get(42, "xxxxxxxx"));
+        assertNull(store.get(43, "xxxxxxxx"));
+        assertNull(store.get(42, "xxxxxxxB"));
+    }
+
+    @Test
+    public void replacesAMoveForTheSameBoard() throws IOException {
+        MappedMoveStore store = new MappedMoveStore(folder.newFile(), SLOTS);
+        store.put(42, "xxxxxxxx", "Wxxxxxxx");
+        store.put(42, "xxxxxxxx", "xWxxxxxx");
+        assertEquals("xWxxxxxx", store.get(42, "xxxxxxxx"));
+    }
+
+    @Test
+    public void probesPastCollisions() throws IOException {
+        MappedMoveStore store = new MappedMoveStore(folder.newFile(), SLOTS);
+        // the same key hash for different boards, and different key hashes with the same home slot
+        store.put(7, board(0), move(0));
+        store.put(7, board(1), move(1));
+        store.put(7 + SLOTS, board(2), move(2));
+        assertEquals(move(0), store.get(7, board(0)));
+        assertEquals(move(1), store.get(7, board(1)));
+        assertEquals(move(2), store.get(7 + SLOTS, board(2)));
+    }
+
+    @Test
+    public void overwritesTheHomeSlotWhenEveryProbeIsTaken() throws IOException {
+        MappedMoveStore store = new MappedMoveStore(folder.newFile(), SLOTS);
+        for (int i = 0; i < SLOTS; i++)
+            store.put(7, board(i), move(i));
+        store.put(7, board(SLOTS), move(SLOTS));
+
+        assertNull(store.get(7, board(0)));
+        for (int i = 1; i <= SLOTS; i++)
+            assertEquals(move(i), store.get(7, board(i)));
+    }
+
+    @Test
+    public void keepsMovesAcrossReopening() throws IOException {
+        File file = folder.newFile();
+        MappedMoveStore store = new MappedMoveStore(file, SLOTS);
+        store.put(42, "xxxxxxxx", "Wxxxxxxx");
+        store.flush();
+
+        assertEquals("Wxxxxxxx", new MappedMoveStore(file, SLOTS).get(42, "xxxxxxxx"));
+        // a file with a different number of slots can't be probed the same way, it starts over
+        assertNull(new MappedMoveStore(file, SLOTS * 2).get(42, "xxxxxxxx"));
+    }
+
+    @Test
+    public void ignoresMovesThatDontFitTheBoard() throws IOException {
+        MappedMoveStore store = new MappedMoveStore(folder.newFile(), SLOTS);
+        store.put(42, "xxxxxxxx", "Wxx");
+        assertNull(store.get(42, "xxxxxxxx"));
+    }
+
+    // distinct 24 position boards, each with a white piece on position i
+    private static String board(int i) {
+        char[] board = "xxxxxxxxxxxxxxxxxxxxxxxx".toCharArray();
+        board[i] = 'W';
+        return new String(board);
+    }
+
+    private static String move(int i) {
+        char[] move = board(i).toCharArray();
+        move[(i + 1) % move.length] = 'W';
+        return new String(move);
+    }
+}
@@ -0,0 +1,83 @@
+package net.networkdowntime.morris.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.networkdowntime.morris.board.Bitboard;
+import net.networkdowntime.morris.board.BoardLayout;
+
+/**
+ * Hits, misses and evictions of the in-memory move cache, with boards reduced under the nine men's morris symmetries.  Each test
+ * uses its own command so the entries of one don't answer another.
+ *
+ * @author rwiles
+ *
+ */
+public class MoveCacheTest {
+    private static final String BOARD = "WxxxBxxxxxxWxxxxxxxxBxxx";
+    private static final String MOVE = "WWxxBxxxxxxWxxxxxxxxBxxx";
+
+    @BeforeClass
+    public static void configure() {
+        // read once, the first time MoveCache and BoardLayout are used
+        System.setProperty(MoveCache.SIZE_PROPERTY, "2");
+        System.setProperty(BoardLayout.LAYOUT_PROPERTY, "nine-mens-morris");
+    }
+
+    @Test
+    public void missesUntilTheMoveIsPut() {
+        long misses = MoveCache.getMissCount();
+        long hits = MoveCache.getHitCount();
+        assertNull(MoveCache.get("Opening", "miss", BOARD));
+        assertEquals(misses + 1, MoveCache.getMissCount());
+
+        MoveCache.put("Opening", "miss", BOARD, MOVE);
+        assertEquals(MOVE, MoveCache.get("Opening", "miss", BOARD));
+        assertEquals(hits + 1, MoveCache.getHitCount());
+    }
+
+    @Test
+    public void keysOnThePhaseAndCommand() {
+        MoveCache.put("Opening", "key", BOARD, MOVE);
+        assertNull(MoveCache.get("Mid/End-Game", "key", BOARD));
+        assertNull(MoveCache.get("Opening", "other key", BOARD));
+        assertEquals(MOVE, MoveCache.get("Opening", "key", BOARD));
+    }
+
+    @Test
+    public void answersEveryOrientationOfTheBoard() {
+        MoveCache.put("Opening", "orientation", BOARD, MOVE);
+        BoardLayout layout = BoardLayout.forBoardLength(BOARD.length());
+        for (int[] symmetry : layout.getSymmetries()) {
+            String board = Bitboard.parse(BOARD).permute(symmetry).toString();
+            assertEquals(Bitboard.parse(MOVE).permute(symmetry).toString(), MoveCache.get("Opening", "orientation", board));
+        }
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedMove() {
+        String second = "xxxxxxxxxxxxxxxxxxxxxxxx";
+        String secondMove = "Wxxxxxxxxxxxxxxxxxxxxxxx";
+        String third = "BxxxxxxxxxxxxxxxxxxxxxxW";
+        String thirdMove = "BWxxxxxxxxxxxxxxxxxxxxxW";
+
+        MoveCache.put("Opening", "evict", BOARD, MOVE);
+        MoveCache.put("Opening", "evict", second, secondMove);
+        assertEquals(MOVE, MoveCache.get("Opening", "evict", BOARD)); // now the second board is the least recently used
+        MoveCache.put("Opening", "evict", third, thirdMove);
+
+        assertEquals(2, MoveCache.getSize());
+        assertNull(MoveCache.get("Opening", "evict", second));
+        assertEquals(MOVE, MoveCache.get("Opening", "evict", BOARD));
+        assertEquals(thirdMove, MoveCache.get("Opening", "evict", third));
+    }
+
+    @Test
+    public void doesntCacheMovesThatDontFitTheBoard() {
+        MoveCache.put("Opening", "misfit", BOARD, "Wxx");
+        assertNull(MoveCache.get("Opening", "misfit", BOARD));
+    }
+}